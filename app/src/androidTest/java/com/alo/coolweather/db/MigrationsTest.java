@@ -0,0 +1,113 @@
+package com.alo.coolweather.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 从初始版本逐步升级到最新版本，验证数据不丢失且省市县查询走索引。
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationsTest {
+    private static final String DB_NAME = "cool_weather_migrations_test";
+
+    private Context context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void upgradeFromBaseVersionKeepsDataAndMergesDuplicates() throws Exception {
+        SQLiteDatabase db = new CoolWeatherOpenHelper(context, DB_NAME, null, Migrations.BASE_VERSION)
+                .getWritableDatabase();
+        db.execSQL("insert into Province (id, province_name, province_code) values (1, '北京', '01')");
+        db.execSQL("insert into Province (id, province_name, province_code) values (2, '北京', '01')");
+        db.execSQL("insert into City (id, city_name, city_code, province_id) values (1, '北京', '0101', 1)");
+        db.execSQL("insert into City (id, city_name, city_code, province_id) values (2, '北京', '0101', 2)");
+        db.execSQL("insert into City (id, city_name, city_code, province_id) values (3, '海淀', '0102', 2)");
+        db.execSQL("insert into County (id, county_name, county_code, city_id) values (1, '朝阳', '010101', 2)");
+        db.close();
+
+        db = new CoolWeatherOpenHelper(context, DB_NAME, null, Migrations.LATEST_VERSION)
+                .getWritableDatabase();
+        assertEquals(Migrations.LATEST_VERSION, db.getVersion());
+        assertEquals(1, count(db, "select count(*) from Province"));
+        assertEquals(2, count(db, "select count(*) from City where province_id = 1"));
+        assertEquals(1, count(db, "select count(*) from County where city_id = 1"));
+        db.close();
+    }
+
+    @Test
+    public void freshInstallMatchesUpgradedSchema() throws Exception {
+        SQLiteDatabase db = new CoolWeatherOpenHelper(context, DB_NAME, null, Migrations.LATEST_VERSION)
+                .getWritableDatabase();
+        assertEquals(5, count(db, "select count(*) from sqlite_master where type = 'index' and name like 'index_%'"));
+        db.close();
+    }
+
+    @Test
+    public void countyWeatherCodeColumnAddedOnUpgrade() throws Exception {
+        SQLiteDatabase db = new CoolWeatherOpenHelper(context, DB_NAME, null, 3).getWritableDatabase();
+        db.execSQL("insert into County (id, county_name, county_code, city_id) values (1, '朝阳', '010101', 1)");
+        db.close();
+
+        db = new CoolWeatherOpenHelper(context, DB_NAME, null, Migrations.LATEST_VERSION).getWritableDatabase();
+        assertEquals(1, count(db, "select count(*) from County where weather_code is null"));
+        db.execSQL("update County set weather_code = '101010300' where county_code = '010101'");
+        assertEquals(1, count(db, "select count(*) from County where weather_code = '101010300'"));
+        db.close();
+    }
+
+    @Test
+    public void childLookupsUseIndex() throws Exception {
+        SQLiteDatabase db = new CoolWeatherOpenHelper(context, DB_NAME, null, Migrations.LATEST_VERSION)
+                .getWritableDatabase();
+        assertTrue(queryPlan(db, "select * from City where province_id = 1").contains("index_city_province_id"));
+        assertTrue(queryPlan(db, "select * from County where city_id = 1").contains("index_county_city_id"));
+        db.close();
+    }
+
+    private static int count(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * EXPLAIN QUERY PLAN结果的最后一列是可读的执行计划描述
+     */
+    private static String queryPlan(SQLiteDatabase db, String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("explain query plan " + sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package com.alo.coolweather.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 预置数据库整体复制后能被升级到最新结构，以及新版数据按代号合并到已有数据库。
+ */
+@RunWith(AndroidJUnit4.class)
+public class RegionAssetInstallerTest {
+    private static final String SOURCE_NAME = "cool_weather_asset_source_test";
+    private static final String TARGET_NAME = "cool_weather_asset_target_test";
+
+    private Context context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(SOURCE_NAME);
+        context.deleteDatabase(TARGET_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        context.deleteDatabase(SOURCE_NAME);
+        context.deleteDatabase(TARGET_NAME);
+    }
+
+    @Test
+    public void copiedDatabaseIsUpgradedToLatestVersion() throws Exception {
+        // 模拟旧版本打包的资源：结构停留在初始版本
+        SQLiteDatabase source = new CoolWeatherOpenHelper(context, SOURCE_NAME, null, Migrations.BASE_VERSION)
+                .getWritableDatabase();
+        source.execSQL("insert into Province (id, province_name, province_code) values (1, '北京', '01')");
+        source.execSQL("insert into City (id, city_name, city_code, province_id) values (1, '北京', '0101', 1)");
+        source.close();
+
+        RegionAssetInstaller.install(new FileInputStream(context.getDatabasePath(SOURCE_NAME)),
+                context.getDatabasePath(TARGET_NAME));
+
+        SQLiteDatabase db = new CoolWeatherOpenHelper(context, TARGET_NAME, null, Migrations.LATEST_VERSION)
+                .getWritableDatabase();
+        assertEquals(Migrations.LATEST_VERSION, db.getVersion());
+        assertEquals(1, count(db, "select count(*) from Province"));
+        assertEquals(1, count(db, "select count(*) from City"));
+        assertEquals(0, count(db, "select count(*) from Weather"));
+        db.close();
+    }
+
+    @Test
+    public void mergeAddsNewRegionsByCode() throws Exception {
+        SQLiteDatabase source = new CoolWeatherOpenHelper(context, SOURCE_NAME, null, Migrations.LATEST_VERSION)
+                .getWritableDatabase();
+        source.execSQL("insert into Province (id, province_name, province_code) values (1, '北京', '01')");
+        source.execSQL("insert into Province (id, province_name, province_code) values (2, '上海', '02')");
+        source.execSQL("insert into City (id, city_name, city_code, province_id) values (1, '北京', '0101', 1)");
+        source.execSQL("insert into City (id, city_name, city_code, province_id) values (2, '上海', '0201', 2)");
+        source.execSQL("insert into County (id, county_name, county_code, city_id) values (1, '朝阳', '010101', 1)");
+        source.execSQL("insert into County (id, county_name, county_code, city_id) values (2, '徐汇', '020101', 2)");
+        source.close();
+
+        // 已有数据库的id与资源中不同，只有北京一省
+        SQLiteDatabase db = new CoolWeatherOpenHelper(context, TARGET_NAME, null, Migrations.LATEST_VERSION)
+                .getWritableDatabase();
+        db.execSQL("insert into Province (id, province_name, province_code) values (7, '北京', '01')");
+        db.execSQL("insert into City (id, city_name, city_code, province_id) values (9, '北京', '0101', 7)");
+
+        File sourceFile = context.getDatabasePath(SOURCE_NAME);
+        RegionAssetInstaller.merge(db, sourceFile);
+        RegionAssetInstaller.merge(db, sourceFile);
+
+        assertEquals(2, count(db, "select count(*) from Province"));
+        assertEquals(2, count(db, "select count(*) from City"));
+        assertEquals(2, count(db, "select count(*) from County"));
+        assertEquals(1, count(db, "select count(*) from County where city_id = 9"));
+        assertEquals(1, count(db, "select count(*) from City c join Province p on p.id = c.province_id"
+                + " where p.province_code = '02'"));
+        db.close();
+    }
+
+    private static int count(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.alo.coolweather.model;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 逐行插入与批量事务插入县级数据的结果一致：行数正确，批量插入后每行都回填了id。
+ * 两者的耗时对比见benchmark模块的IngestBenchmark。
+ */
+@RunWith(AndroidJUnit4.class)
+public class CoolWeatherDBIngestTest {
+    private static final String DB_NAME = "cool_weather_ingest_test";
+    private static final int ROWS = 2000;
+
+    private Context context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void perRowAndBatchIngestStoreEveryRow() throws Exception {
+        CoolWeatherDB coolWeatherDB = new CoolWeatherDB(context, DB_NAME);
+
+        for (County county : buildCounties(1)) {
+            coolWeatherDB.saveCounty(county);
+        }
+        List<County> batch = buildCounties(2);
+        coolWeatherDB.saveCounties(batch);
+
+        assertEquals(ROWS, coolWeatherDB.loadCounties(1).size());
+        assertEquals(ROWS, coolWeatherDB.loadCounties(2).size());
+        for (County county : batch) {
+            assertTrue(county.getId() > 0);
+        }
+    }
+
+    private static List<County> buildCounties(int cityId) {
+        List<County> counties = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            County county = new County();
+            county.setCountyName("县" + i);
+            county.setCountyCode(String.format("%02d%04d", cityId, i));
+            county.setCityId(cityId);
+            counties.add(county);
+        }
+        return counties;
+    }
+}
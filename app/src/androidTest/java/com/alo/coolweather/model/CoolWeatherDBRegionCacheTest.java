@@ -0,0 +1,109 @@
+package com.alo.coolweather.model;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 省市县缓存的命中、失效测试，数据按全国规模（34省/400市/2600县）构造。
+ */
+@RunWith(AndroidJUnit4.class)
+public class CoolWeatherDBRegionCacheTest {
+    private static final String DB_NAME = "cool_weather_region_cache_test";
+    private static final int PROVINCES = 34;
+    private static final int CITIES_PER_PROVINCE = 12;
+    private static final int COUNTIES_PER_CITY = 7;
+
+    private Context context;
+    private CoolWeatherDB coolWeatherDB;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        coolWeatherDB = new CoolWeatherDB(context, DB_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void repeatedLoadsAreServedFromCache() throws Exception {
+        ingestCountry();
+
+        List<Province> provinces = coolWeatherDB.loadProvince();
+        int provinceId = provinces.get(0).getId();
+        List<City> cities = coolWeatherDB.loadCity(provinceId);
+
+        assertSame(provinces, coolWeatherDB.loadProvince());
+        assertSame(cities, coolWeatherDB.loadCity(provinceId));
+    }
+
+    @Test
+    public void ingestInvalidatesOnlyAffectedParent() throws Exception {
+        ingestCountry();
+        int provinceId = coolWeatherDB.loadProvince().get(0).getId();
+        int otherProvinceId = coolWeatherDB.loadProvince().get(1).getId();
+        List<City> cities = coolWeatherDB.loadCity(provinceId);
+        List<City> otherCities = coolWeatherDB.loadCity(otherProvinceId);
+
+        City city = new City();
+        city.setCityName("新城");
+        city.setCityCode("99");
+        city.setProvinceId(provinceId);
+        coolWeatherDB.saveCity(city);
+
+        assertNotSame(cities, coolWeatherDB.loadCity(provinceId));
+        assertEquals(cities.size() + 1, coolWeatherDB.loadCity(provinceId).size());
+        assertSame(otherCities, coolWeatherDB.loadCity(otherProvinceId));
+    }
+
+    private void ingestCountry() {
+        List<Province> provinces = new ArrayList<>();
+        for (int p = 0; p < PROVINCES; p++) {
+            Province province = new Province();
+            province.setProvinceName("省份" + p);
+            province.setProvinceCode(String.format("%02d", p));
+            provinces.add(province);
+        }
+        coolWeatherDB.saveProvinces(provinces);
+
+        List<City> cities = new ArrayList<>();
+        for (Province province : provinces) {
+            for (int c = 0; c < CITIES_PER_PROVINCE; c++) {
+                City city = new City();
+                city.setCityName("城市" + c);
+                city.setCityCode(province.getProvinceCode() + String.format("%02d", c));
+                city.setProvinceId(province.getId());
+                cities.add(city);
+            }
+        }
+        coolWeatherDB.saveCities(cities);
+
+        List<County> counties = new ArrayList<>();
+        for (City city : cities) {
+            for (int c = 0; c < COUNTIES_PER_CITY; c++) {
+                County county = new County();
+                county.setCountyName("区县" + c);
+                county.setCountyCode(city.getCityCode() + String.format("%02d", c));
+                county.setCityId(city.getId());
+                counties.add(county);
+            }
+        }
+        coolWeatherDB.saveCounties(counties);
+    }
+}
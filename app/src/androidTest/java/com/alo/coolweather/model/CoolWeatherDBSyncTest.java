@@ -0,0 +1,130 @@
+package com.alo.coolweather.model;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.alo.coolweather.util.RegionSearchIndex;
+import com.alo.coolweather.util.Utility;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 省市县增量同步：重复同步不写入、改名、删除连同下级、代号换了上级
+ */
+@RunWith(AndroidJUnit4.class)
+public class CoolWeatherDBSyncTest {
+    private static final String DB_NAME = "cool_weather_sync_test";
+
+    private Context context;
+    private CoolWeatherDB coolWeatherDB;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        coolWeatherDB = new CoolWeatherDB(context, DB_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void repeatedSyncWritesNothing() throws Exception {
+        String response = "01|北京,02|上海,03|天津";
+        RegionDelta first = coolWeatherDB.syncProvinces(Utility.parseProvinces(response));
+        assertEquals(new RegionDelta(3, 0, 0, 0).toString(), first.toString());
+
+        List<Province> again = Utility.parseProvinces(response);
+        RegionDelta second = coolWeatherDB.syncProvinces(again);
+        assertTrue(second.isEmpty());
+        assertEquals(3, second.getUnchanged());
+        assertEquals(3, coolWeatherDB.loadProvince().size());
+        // 没有变化时也回填已有行的id
+        assertEquals(coolWeatherDB.loadProvince().get(0).getId(), again.get(0).getId());
+    }
+
+    @Test
+    public void duplicateCodesInResponseAreStoredOnce() throws Exception {
+        int provinceId = province("01", "北京");
+        RegionDelta delta = coolWeatherDB.syncCities(provinceId,
+                Utility.parseCities("0101|北京,0102|海淀,0101|北京", provinceId));
+        assertEquals(2, delta.getInserted());
+        assertEquals(2, coolWeatherDB.loadCity(provinceId).size());
+    }
+
+    @Test
+    public void renamesAndDeletesCascade() throws Exception {
+        int provinceId = province("01", "北京");
+        coolWeatherDB.syncCities(provinceId, Utility.parseCities("0101|北京,0102|海淀,0103|朝阳", provinceId));
+        int haidian = cityId(provinceId, "0102");
+        coolWeatherDB.syncCounties(haidian, Utility.parseCounties("010201|海淀,010202|中关村", haidian));
+        // 先建立搜索索引，改名和删除之后应当重建
+        assertEquals(1, coolWeatherDB.getSearchIndex().search("中关村", 10).size());
+
+        RegionDelta delta = coolWeatherDB.syncCities(provinceId,
+                Utility.parseCities("0101|北京城区,0103|朝阳,0104|丰台", provinceId));
+        assertEquals(1, delta.getInserted());
+        assertEquals(1, delta.getRenamed());
+        assertEquals(1, delta.getDeleted());
+        assertEquals(1, delta.getUnchanged());
+
+        List<City> cities = coolWeatherDB.loadCity(provinceId);
+        assertEquals(3, cities.size());
+        assertEquals("北京城区", cities.get(0).getCityName());
+        assertTrue(coolWeatherDB.loadCounties(haidian).isEmpty());
+        assertTrue(coolWeatherDB.getSearchIndex().search("中关村", 10).isEmpty());
+        assertEquals(1, coolWeatherDB.getSearchIndex().search("北京城区", 10).size());
+    }
+
+    @Test
+    public void codeMovedToAnotherParentKeepsItsRow() throws Exception {
+        int provinceId = province("01", "北京");
+        coolWeatherDB.syncCities(provinceId, Utility.parseCities("0101|北京,0102|海淀", provinceId));
+        int beijing = cityId(provinceId, "0101");
+        int haidian = cityId(provinceId, "0102");
+        coolWeatherDB.syncCounties(beijing, Utility.parseCounties("010101|东城,010102|西城", beijing));
+        int xicheng = coolWeatherDB.loadCounties(beijing).get(1).getId();
+
+        Map<Integer, List<County>> counties = new HashMap<>();
+        counties.put(beijing, Utility.parseCounties("010101|东城", beijing));
+        counties.put(haidian, Utility.parseCounties("010102|西城区", haidian));
+        RegionDelta delta = coolWeatherDB.syncCounties(counties);
+
+        assertEquals(1, delta.getInserted());
+        assertEquals(0, delta.getDeleted());
+        assertEquals(1, coolWeatherDB.loadCounties(beijing).size());
+        County moved = coolWeatherDB.loadCounties(haidian).get(0);
+        assertEquals(xicheng, moved.getId());
+        assertEquals("西城区", moved.getCountyName());
+        RegionSearchIndex.Region region = coolWeatherDB.getSearchIndex().find(RegionSearchIndex.LEVEL_COUNTY, xicheng);
+        assertEquals(haidian, region.getParentId());
+    }
+
+    private int province(String code, String name) {
+        List<Province> provinces = Utility.parseProvinces(code + "|" + name);
+        coolWeatherDB.syncProvinces(provinces);
+        return provinces.get(0).getId();
+    }
+
+    private int cityId(int provinceId, String code) {
+        for (City city : coolWeatherDB.loadCity(provinceId)) {
+            if (code.equals(city.getCityCode())) {
+                return city.getId();
+            }
+        }
+        throw new AssertionError("no city " + code);
+    }
+}
@@ -0,0 +1,103 @@
+package com.alo.coolweather.model;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Weather表的多城市读写测试
+ */
+@RunWith(AndroidJUnit4.class)
+public class CoolWeatherDBWeatherTest {
+    private static final String DB_NAME = "cool_weather_weather_test";
+
+    private Context context;
+    private CoolWeatherDB coolWeatherDB;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        coolWeatherDB = new CoolWeatherDB(context, DB_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void storesSeveralCitiesKeyedByCode() throws Exception {
+        coolWeatherDB.saveWeathers(Arrays.asList(weather("101010100", "北京", "3℃"), weather("101020100", "上海", "9℃")));
+        coolWeatherDB.saveWeathers(Arrays.asList(weather("101010100", "北京", "5℃")));
+
+        assertEquals(2, coolWeatherDB.loadAllWeather().size());
+        assertEquals("5℃", coolWeatherDB.loadWeather("101010100").getTemp1());
+        assertEquals("上海", coolWeatherDB.loadWeather("101020100").getCityName());
+        assertNull(coolWeatherDB.loadWeather("101190404"));
+    }
+
+    @Test
+    public void countyWeatherCodesAreStoredAndLookedUp() throws Exception {
+        County chaoyang = county("朝阳", "010101");
+        County haidian = county("海淀", "010102");
+        coolWeatherDB.saveCounties(Arrays.asList(chaoyang, haidian));
+        assertNull(coolWeatherDB.loadWeatherCode("010101"));
+        assertEquals(Arrays.asList("010101", "010102"), coolWeatherDB.loadCountyCodesWithoutWeatherCode(1));
+
+        Map<String, String> codes = new HashMap<>();
+        codes.put("010101", "101010300");
+        codes.put("999999", "101990000");
+        coolWeatherDB.saveWeatherCodes(codes);
+
+        assertEquals("101010300", coolWeatherDB.loadWeatherCode("010101"));
+        assertNull(coolWeatherDB.loadWeatherCode("999999"));
+        assertEquals(Arrays.asList("010102"), coolWeatherDB.loadCountyCodesWithoutWeatherCode(1));
+    }
+
+    @Test
+    public void asyncSaveIsReadableBeforeAndAfterFlush() throws Exception {
+        coolWeatherDB.saveWeatherAsync(weather("101190404", "昆山", "21℃"));
+        assertEquals("21℃", coolWeatherDB.loadWeather("101190404").getTemp1());
+
+        // 写入在单独线程上完成后，新的实例也能从数据库读到
+        long deadline = System.currentTimeMillis() + 5000;
+        while (new CoolWeatherDB(context, DB_NAME).loadAllWeather().isEmpty()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("昆山", new CoolWeatherDB(context, DB_NAME).loadWeather("101190404").getCityName());
+    }
+
+    private static Weather weather(String code, String city, String temp1) {
+        Weather weather = new Weather();
+        weather.setWeatherCode(code);
+        weather.setCityName(city);
+        weather.setTemp1(temp1);
+        weather.setTemp2("-2℃");
+        weather.setWeatherDesp("晴");
+        weather.setPublishTime("08:00");
+        weather.setUpdatedAt(System.currentTimeMillis());
+        return weather;
+    }
+
+    private static County county(String name, String code) {
+        County county = new County();
+        county.setCountyName(name);
+        county.setCountyCode(code);
+        county.setCityId(1);
+        return county;
+    }
+}
@@ -0,0 +1,30 @@
+package com.alo.coolweather;
+
+import android.app.Application;
+
+import com.alo.coolweather.util.HttpCache;
+import com.alo.coolweather.util.HttpUtil;
+import com.alo.coolweather.util.WeatherApi;
+
+import java.io.File;
+
+/**
+ * 进程级的初始化
+ * Created by alo on 2016/12/23.
+ */
+
+public class CoolWeatherApplication extends Application {
+    /**
+     * HTTP响应缓存的磁盘上限
+     */
+    private static final long HTTP_CACHE_SIZE = 2 * 1024 * 1024;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // HttpCache在首次请求时才扫描目录，这里不会有磁盘操作
+        HttpUtil.installCache(new HttpCache(new File(getCacheDir(), "http"), HTTP_CACHE_SIZE));
+        // 默认是weather.com.cn，构建时可以用 -PweatherBaseUrl=http://10.0.2.2:8080/data/ 指向本机的模拟服务器
+        WeatherApi.setBaseUrl(BuildConfig.WEATHER_BASE_URL);
+    }
+}
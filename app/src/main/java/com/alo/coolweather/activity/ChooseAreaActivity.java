@@ -3,13 +3,17 @@ package com.alo.coolweather.activity;
 import android.app.ProgressDialog;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -19,10 +23,18 @@ import com.alo.coolweather.model.City;
 import com.alo.coolweather.model.CoolWeatherDB;
 import com.alo.coolweather.model.County;
 import com.alo.coolweather.model.Province;
+import com.alo.coolweather.model.RegionDelta;
 import com.alo.coolweather.util.HttpCallbackListener;
 import com.alo.coolweather.util.HttpUtil;
+import com.alo.coolweather.util.RegionSearchIndex;
+import com.alo.coolweather.util.RegionSnapshot;
+import com.alo.coolweather.util.RegionSync;
 import com.alo.coolweather.util.Utility;
+import com.alo.coolweather.util.WeatherApi;
+import com.alo.coolweather.util.WeatherCodeResolver;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,10 +42,15 @@ public class ChooseAreaActivity extends AppCompatActivity {
     public static final int LEVEL_PROVINCE = 0;
     public static final int LEVEL_CITY = 1;
     public static final int LEVEL_COUNTY = 2;
+    /**
+     * 搜索时最多显示的结果数
+     */
+    private static final int SEARCH_LIMIT = 30;
 
     private ProgressDialog progressDialog;
     private TextView textView;
     private ListView listView;
+    private EditText searchEdit;
     private ArrayAdapter<String> arrayAdapter;
     private CoolWeatherDB coolWeatherDB;
     private List<String> dataList = new ArrayList<>();
@@ -65,6 +82,27 @@ public class ChooseAreaActivity extends AppCompatActivity {
      * 是否从WeatherActivity中跳转过来。
      */
     private boolean isFromWeatherActivity;
+    /**
+     * 正在后台进行的数据库查询，切换级别、返回或退出时取消
+     */
+    private LoadTask loadTask;
+    /**
+     * Activity是否已经销毁，用于丢弃之后才返回的网络结果
+     */
+    private boolean destroyed;
+    /**
+     * 省市县快照，在后台线程第一次查询时打开，没有快照时为null。数据有改动时由主线程置为null
+     */
+    private volatile RegionSnapshot snapshot;
+    private boolean snapshotOpened;
+    /**
+     * 搜索索引是否正在后台建立。索引本身每次搜索时从CoolWeatherDB取，这样能看到之后入库的改动
+     */
+    private boolean searchIndexLoading;
+    /**
+     * 当前显示的搜索结果，不在搜索时为null
+     */
+    private List<RegionSearchIndex.Region> searchResults;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -86,11 +124,27 @@ public class ChooseAreaActivity extends AppCompatActivity {
         textView = (TextView) findViewById(R.id.title_text);
         arrayAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_expandable_list_item_1, dataList);
         listView.setAdapter(arrayAdapter);
-        coolWeatherDB = CoolWeatherDB.getInstance(this);
+        searchEdit = (EditText) findViewById(R.id.search_edit);
+        searchEdit.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence charSequence, int i, int i1, int i2) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence charSequence, int i, int i1, int i2) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable editable) {
+                search(editable.toString());
+            }
+        });
         listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
-                if (currentLevel == LEVEL_PROVINCE) {
+                if (searchResults != null) {
+                    onSearchResultClick(searchResults.get(i));
+                } else if (currentLevel == LEVEL_PROVINCE) {
                     selectedProvince = provinceList.get(i);
                     queryCities();
                 } else if (currentLevel == LEVEL_CITY) {
@@ -105,13 +159,286 @@ public class ChooseAreaActivity extends AppCompatActivity {
             }
         });
         queryProvinces();//加载省级数据
+        // 首次启动时在后台同步全国省市县数据，之后逐级浏览不再需要联网
+        RegionSync.syncInBackground(this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        cancelLoad();
     }
 
     /**
      * 查询全国所有的省，优先从数据库查询，如果没有查询到再去服务器上查询。
+     * 数据库的打开和查询都在后台线程进行，结果通过onLoaded一次性显示。
      */
     private void queryProvinces() {
-        provinceList = coolWeatherDB.loadProvince();
+        startLoad(LEVEL_PROVINCE, 0);
+    }
+
+    /**
+     * 查询选中省内所有的市，优先从数据库查询，如果没有查询到再去服务器上查询。
+     */
+    private void queryCities() {
+        startLoad(LEVEL_CITY, selectedProvince.getId());
+    }
+
+    /**
+     * 查询选中市内所有的县，优先从数据库查询，如果没有查询到再去服务器上查询。
+     */
+    private void queryCounties() {
+        startLoad(LEVEL_COUNTY, selectedCity.getId());
+    }
+
+    /**
+     * 取消之前未完成的查询，再在后台开始新的查询
+     */
+    private void startLoad(int level, int parentId) {
+        cancelLoad();
+        loadTask = new LoadTask(level, parentId);
+        loadTask.execute();
+    }
+
+    /**
+     * 取消正在进行的查询，返回是否真的取消了一个查询
+     */
+    private boolean cancelLoad() {
+        if (loadTask == null) {
+            return false;
+        }
+        loadTask.cancel(false);
+        loadTask = null;
+        return true;
+    }
+
+    /**
+     * 在后台线程打开数据库并查询某一级的数据。CoolWeatherDB.getInstance第一次调用时会创建或升级数据库，
+     * 所以也放在这里，不占用主线程。被取消的任务不会回调onLoaded。
+     */
+    private class LoadTask extends AsyncTask<Void, Void, List<?>> {
+        private final int level;
+        private final int parentId;
+        private CoolWeatherDB db;
+
+        LoadTask(int level, int parentId) {
+            this.level = level;
+            this.parentId = parentId;
+        }
+
+        @Override
+        protected List<?> doInBackground(Void... voids) {
+            db = CoolWeatherDB.getInstance(getApplicationContext());
+            if (isCancelled()) {
+                return null;
+            }
+            List<?> fromSnapshot = loadFromSnapshot(level, parentId);
+            if (fromSnapshot != null) {
+                return fromSnapshot;
+            }
+            if (level == LEVEL_PROVINCE) {
+                return db.loadProvince();
+            } else if (level == LEVEL_CITY) {
+                return db.loadCity(parentId);
+            }
+            return db.loadCounties(parentId);
+        }
+
+        @Override
+        protected void onPostExecute(List<?> result) {
+            if (loadTask != this || destroyed) {
+                return;
+            }
+            loadTask = null;
+            coolWeatherDB = db;
+            onLoaded(level, result);
+        }
+    }
+
+    /**
+     * 从快照读取某一级的数据，只为要显示的行创建对象。没有快照或快照中该级为空时返回null，
+     * 交由数据库查询（必要时再从服务器获取）。只在LoadTask的后台线程调用，AsyncTask串行执行。
+     */
+    private List<?> loadFromSnapshot(int level, int parentId) {
+        if (!snapshotOpened) {
+            snapshotOpened = true;
+            try {
+                File file = RegionSync.getSnapshotFile(this);
+                snapshot = file.exists() ? RegionSnapshot.open(file) : null;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        // 只读一次，读取过程中主线程把快照置为null也不影响这一次
+        RegionSnapshot current = snapshot;
+        if (current == null) {
+            return null;
+        }
+        if (level == LEVEL_PROVINCE) {
+            int count = current.getCount(RegionSnapshot.LEVEL_PROVINCE);
+            List<Province> provinces = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Province province = new Province();
+                province.setId(current.getId(RegionSnapshot.LEVEL_PROVINCE, i));
+                province.setProvinceName(current.getName(RegionSnapshot.LEVEL_PROVINCE, i));
+                province.setProvinceCode(current.getCode(RegionSnapshot.LEVEL_PROVINCE, i));
+                provinces.add(province);
+            }
+            return provinces.isEmpty() ? null : provinces;
+        }
+        int parentLevel = level == LEVEL_CITY ? RegionSnapshot.LEVEL_PROVINCE : RegionSnapshot.LEVEL_CITY;
+        int parent = current.indexOf(parentLevel, parentId);
+        int count = parent < 0 ? 0 : current.getChildCount(parentLevel, parent);
+        if (count == 0) {
+            return null;
+        }
+        if (level == LEVEL_CITY) {
+            List<City> cities = new ArrayList<>(count);
+            for (int n = 0; n < count; n++) {
+                int i = current.getChild(parentLevel, parent, n);
+                City city = new City();
+                city.setId(current.getId(RegionSnapshot.LEVEL_CITY, i));
+                city.setProvinceId(parentId);
+                city.setCityName(current.getName(RegionSnapshot.LEVEL_CITY, i));
+                city.setCityCode(current.getCode(RegionSnapshot.LEVEL_CITY, i));
+                cities.add(city);
+            }
+            return cities;
+        }
+        List<County> counties = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            int i = current.getChild(parentLevel, parent, n);
+            County county = new County();
+            county.setId(current.getId(RegionSnapshot.LEVEL_COUNTY, i));
+            county.setCityId(parentId);
+            county.setCountyName(current.getName(RegionSnapshot.LEVEL_COUNTY, i));
+            county.setCountyCode(current.getCode(RegionSnapshot.LEVEL_COUNTY, i));
+            counties.add(county);
+        }
+        return counties;
+    }
+
+    /**
+     * 按输入的前缀搜索省市县，输入为空时回到逐级浏览。索引建立前的输入会在建立后重新搜索。
+     */
+    private void search(String text) {
+        if (TextUtils.isEmpty(text.trim())) {
+            if (searchResults != null) {
+                searchResults = null;
+                showCurrentLevel();
+            }
+            return;
+        }
+        RegionSearchIndex searchIndex = coolWeatherDB == null ? null : coolWeatherDB.peekSearchIndex();
+        if (searchIndex == null) {
+            loadSearchIndex();
+            return;
+        }
+        showSearchResults(searchIndex, text);
+    }
+
+    private void showSearchResults(RegionSearchIndex searchIndex, String text) {
+        searchResults = searchIndex.search(text, SEARCH_LIMIT);
+        dataList.clear();
+        for (RegionSearchIndex.Region region : searchResults) {
+            dataList.add(region.toString());
+        }
+        arrayAdapter.notifyDataSetChanged();
+        listView.setSelection(0);
+    }
+
+    private void loadSearchIndex() {
+        if (searchIndexLoading) {
+            return;
+        }
+        searchIndexLoading = true;
+        new AsyncTask<Void, Void, RegionSearchIndex>() {
+            @Override
+            protected RegionSearchIndex doInBackground(Void... voids) {
+                return CoolWeatherDB.getInstance(getApplicationContext()).getSearchIndex();
+            }
+
+            @Override
+            protected void onPostExecute(RegionSearchIndex index) {
+                searchIndexLoading = false;
+                String text = searchEdit.getText().toString();
+                if (destroyed || TextUtils.isEmpty(text.trim())) {
+                    return;
+                }
+                // 用刚取到的索引搜索一次，之后的输入再从CoolWeatherDB取最新的索引
+                showSearchResults(index, text);
+            }
+        }.execute();
+    }
+
+    /**
+     * 选中搜索结果：县直接查看天气，省和市进入下一级
+     */
+    private void onSearchResultClick(RegionSearchIndex.Region region) {
+        searchResults = null;
+        searchEdit.setText("");
+        if (region.getLevel() == RegionSearchIndex.LEVEL_COUNTY) {
+            Intent intent = new Intent(this, WeatherActivity.class);
+            intent.putExtra("county_code", region.getCode());
+            startActivity(intent);
+            finish();
+        } else if (region.getLevel() == RegionSearchIndex.LEVEL_CITY) {
+            selectedProvince = new Province();
+            selectedProvince.setId(region.getParentId());
+            selectedProvince.setProvinceName(region.getParentName());
+            selectedCity = new City();
+            selectedCity.setId(region.getId());
+            selectedCity.setProvinceId(region.getParentId());
+            selectedCity.setCityName(region.getName());
+            selectedCity.setCityCode(region.getCode());
+            queryCounties();
+        } else {
+            selectedProvince = new Province();
+            selectedProvince.setId(region.getId());
+            selectedProvince.setProvinceName(region.getName());
+            selectedProvince.setProvinceCode(region.getCode());
+            queryCities();
+        }
+    }
+
+    /**
+     * 退出搜索后重新显示当前级别已加载的列表
+     */
+    private void showCurrentLevel() {
+        dataList.clear();
+        if (currentLevel == LEVEL_PROVINCE && provinceList != null) {
+            for (Province province : provinceList) {
+                dataList.add(province.getProvinceName());
+            }
+        } else if (currentLevel == LEVEL_CITY && cityList != null) {
+            for (City city : cityList) {
+                dataList.add(city.getCityName());
+            }
+        } else if (currentLevel == LEVEL_COUNTY && countyList != null) {
+            for (County county : countyList) {
+                dataList.add(county.getCountyName());
+            }
+        }
+        arrayAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * 在主线程显示查询结果，结果为空时从服务器获取
+     */
+    @SuppressWarnings("unchecked")
+    private void onLoaded(int level, List<?> result) {
+        if (level == LEVEL_PROVINCE) {
+            showProvinces((List<Province>) result);
+        } else if (level == LEVEL_CITY) {
+            showCities((List<City>) result);
+        } else {
+            showCounties((List<County>) result);
+        }
+    }
+
+    private void showProvinces(List<Province> provinces) {
+        provinceList = provinces;
         if (provinceList.size() > 0) {
             dataList.clear();
             for (Province province : provinceList
@@ -127,11 +454,8 @@ public class ChooseAreaActivity extends AppCompatActivity {
         }
     }
 
-    /**
-     * 查询选中省内所有的市，优先从数据库查询，如果没有查询到再去服务器上查询。
-     */
-    private void queryCities() {
-        cityList = coolWeatherDB.loadCity(selectedProvince.getId());
+    private void showCities(List<City> cities) {
+        cityList = cities;
         if (cityList.size() > 0) {
             dataList.clear();
             for (City city : cityList
@@ -146,11 +470,8 @@ public class ChooseAreaActivity extends AppCompatActivity {
             queryFromServer(selectedProvince.getProvinceCode(), "city");
     }
 
-    /**
-     * 查询选中市内所有的县，优先从数据库查询，如果没有查询到再去服务器上查询。
-     */
-    private void queryCounties() {
-        countyList = coolWeatherDB.loadCounties(selectedCity.getId());
+    private void showCounties(List<County> counties) {
+        countyList = counties;
         if (countyList.size() > 0) {
             dataList.clear();
             for (County county : countyList) {
@@ -159,6 +480,8 @@ public class ChooseAreaActivity extends AppCompatActivity {
             arrayAdapter.notifyDataSetChanged();
             listView.setSelection(0);
             textView.setText(selectedCity.getCityName());
+            // 在后台把这个城市的县预先解析出天气代号，选中后直接请求天气
+            WeatherCodeResolver.resolveInBackground(coolWeatherDB, selectedCity.getId());
             currentLevel = LEVEL_COUNTY;
         } else {
             queryFromServer(selectedCity.getCityCode(), "county");
@@ -169,28 +492,35 @@ public class ChooseAreaActivity extends AppCompatActivity {
      * 根据传入的代号和类型从服务器上查询省市县数据。
      */
     private void queryFromServer(String code, final String type) {
-        String address;
-        if (!TextUtils.isEmpty(code)) {
-            address = "http://www.weather.com.cn/data/list3/city" + code + ".xml";
-        } else {
-            address = "http://www.weather.com.cn/data/list3/city.xml";
-        }
+        String address = WeatherApi.regionUrl(code);
         showProgressDialog();
         HttpUtil.sendHttpRequest(address, new HttpCallbackListener() {
             @Override
             public void onFinish(String response) {
-                boolean result = false;
+                RegionDelta delta = null;
                 if ("province".equals(type)) {
-                    result = Utility.handleProvincesResponse(coolWeatherDB, response);
+                    delta = Utility.handleProvincesResponse(coolWeatherDB, response);
                 } else if ("city".equals(type)) {
-                    result = Utility.handleCitiesResponse(coolWeatherDB, response, selectedProvince.getId());
+                    delta = Utility.handleCitiesResponse(coolWeatherDB, response, selectedProvince.getId());
                 } else if ("county".equals(type)) {
-                    result = Utility.handleCountiesResponse(coolWeatherDB, response, selectedCity.getId());
+                    delta = Utility.handleCountiesResponse(coolWeatherDB, response, selectedCity.getId());
+                }
+                if (delta != null && !delta.isEmpty()) {
+                    // 快照与数据库不一致了，删掉后从数据库读取，下次后台同步时重新写出
+                    RegionSync.invalidateSnapshot(getApplicationContext());
                 }
-                if (result) {
+                if (delta != null) {
+                    final boolean changed = !delta.isEmpty();
                     runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
+                            if (destroyed) {
+                                return;
+                            }
+                            if (changed) {
+                                // 已经打开的快照也不再可信，之后的LoadTask直接查数据库
+                                snapshot = null;
+                            }
                             closeProgressDialog();
                             if ("province".equals(type)) {
                                 queryProvinces();
@@ -206,9 +536,17 @@ public class ChooseAreaActivity extends AppCompatActivity {
 
             @Override
             public void onError(Exception e) {
+                // 省市县列表很少变化，请求失败时缓存的旧内容照样可以用
+                if (e instanceof HttpUtil.StaleResponseException) {
+                    onFinish(((HttpUtil.StaleResponseException) e).body);
+                    return;
+                }
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
+                        if (destroyed) {
+                            return;
+                        }
                         closeProgressDialog();
                         Toast.makeText(ChooseAreaActivity.this, "没有查询到数据", Toast.LENGTH_SHORT).show();
                     }
@@ -244,6 +582,15 @@ public class ChooseAreaActivity extends AppCompatActivity {
     @Override
     public void onBackPressed() {
         //        super.onBackPressed();
+        // 搜索时返回键先退出搜索
+        if (searchResults != null) {
+            searchEdit.setText("");
+            return;
+        }
+        // 下一级还在加载时，返回键只取消加载，停留在当前级别
+        if (cancelLoad() && !dataList.isEmpty()) {
+            return;
+        }
         if (currentLevel == LEVEL_COUNTY) {
             queryCities();
         } else if (currentLevel == LEVEL_CITY) {
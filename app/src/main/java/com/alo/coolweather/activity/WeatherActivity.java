@@ -2,6 +2,7 @@ package com.alo.coolweather.activity;
 
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
@@ -12,10 +13,17 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import com.alo.coolweather.R;
+import com.alo.coolweather.model.CoolWeatherDB;
+import com.alo.coolweather.model.WeatherInfo;
 import com.alo.coolweather.service.AutoUpdateService;
+import com.alo.coolweather.util.CurrentWeather;
 import com.alo.coolweather.util.HttpCallbackListener;
 import com.alo.coolweather.util.HttpUtil;
 import com.alo.coolweather.util.Utility;
+import com.alo.coolweather.util.WeatherApi;
+import com.alo.coolweather.util.WeatherParser;
+
+import java.util.Collections;
 
 /**
  * 天气显示页面
@@ -56,6 +64,22 @@ public class WeatherActivity extends AppCompatActivity implements View.OnClickLi
      * 更新天气按钮
      */
     private Button refreshWeather;
+    /**
+     * 当前天气快照变化时刷新界面，后台自动更新的结果也能立即显示
+     */
+    private final CurrentWeather.Listener weatherListener = new CurrentWeather.Listener() {
+        @Override
+        public void onWeatherChanged(final CurrentWeather.Snapshot snapshot) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (weatherInfoLayout.getVisibility() == View.VISIBLE) {
+                        render(snapshot);
+                    }
+                }
+            });
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -79,56 +103,88 @@ public class WeatherActivity extends AppCompatActivity implements View.OnClickLi
             publishText.setText("同步中...");
             weatherInfoLayout.setVisibility(View.INVISIBLE);
             cityNameText.setVisibility(View.INVISIBLE);
-            queryWeatherCode(countyCode);
+            resolveWeatherCode(countyCode);
         } else {
             // 没有县级代号时就直接显示本地天气
             showWeather();
         }
         switchCity.setOnClickListener(this);
         refreshWeather.setOnClickListener(this);
+        CurrentWeather.addListener(weatherListener);
+        // 打开界面时启动一次自动更新，数据还新时服务只安排下一次唤醒，不会重复请求
+        startService(new Intent(this, AutoUpdateService.class));
+    }
+
+    @Override
+    protected void onDestroy() {
+        CurrentWeather.removeListener(weatherListener);
+        super.onDestroy();
+    }
+
+    /**
+     * 先在后台线程查County表中保存的天气代号，有就直接查询天气，没有再向服务器查询。
+     */
+    private void resolveWeatherCode(final String countyCode) {
+        new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(Void... voids) {
+                return CoolWeatherDB.getInstance(getApplicationContext()).loadWeatherCode(countyCode);
+            }
+
+            @Override
+            protected void onPostExecute(String weatherCode) {
+                if (weatherCode != null) {
+                    queryWeatherInfo(weatherCode);
+                } else {
+                    queryWeatherCode(countyCode);
+                }
+            }
+        }.execute();
     }
 
     /**
      * 查询县级代号所对应的天气代号。
      */
     private void queryWeatherCode(String countyCode) {
-        String address = "http://www.weather.com.cn/data/list3/city" + countyCode + ".xml";
-        queryFromServer(address, "countyCode");
+        String address = WeatherApi.regionUrl(countyCode);
+        queryFromServer(address, "countyCode", countyCode);
     }
 
     /**
      * 查询天气代号所对应的天气。
      */
     private void queryWeatherInfo(String weatherCode) {
-        String address = "http://www.weather.com.cn/data/cityinfo/" + weatherCode + ".html";
-        queryFromServer(address, "weatherCode");
+        String address = WeatherApi.weatherUrl(weatherCode);
+        queryFromServer(address, "weatherCode", null);
     }
 
     /**
      * 根据传入的地址和类型去向服务器查询天气代号或者天气信息。
      */
-    private void queryFromServer(final String address, final String type) {
+    private void queryFromServer(final String address, final String type, final String countyCode) {
         HttpUtil.sendHttpRequest(address, new HttpCallbackListener() {
             @Override
             public void onFinish(final String response) {
                 if ("countyCode".equals(type)) {
-                    if (!TextUtils.isEmpty(response)) {
-                        // 从服务器返回的数据中解析出天气代号
-                        String[] array = response.split("\\|");
-                        if (array != null && array.length == 2) {
-                            String weatherCode = array[1];
-                            queryWeatherInfo(weatherCode);
-
-                        }
+                    // 从服务器返回的数据中解析出天气代号，保存下来下次不用再查
+                    String weatherCode = Utility.parseWeatherCode(response);
+                    if (weatherCode != null) {
+                        CoolWeatherDB.getInstance(getApplicationContext()).saveWeatherCodes(
+                                Collections.singletonMap(countyCode, weatherCode));
+                        queryWeatherInfo(weatherCode);
                     }
                 } else if ("weatherCode".equals(type)) {
-                    // 处理服务器返回的天气信息
-                    Utility.handleWeatherResponse(WeatherActivity.this,
+                    // 处理服务器返回的天气信息，格式不对时提示同步失败，保留原来显示的天气
+                    final WeatherParser.Result result = Utility.handleWeatherResponse(WeatherActivity.this,
                             response);
                     runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
-                            showWeather();
+                            if (result.isSuccess()) {
+                                showWeather();
+                            } else {
+                                publishText.setText("同步失败");
+                            }
                         }
                     });
                 }
@@ -136,6 +192,11 @@ public class WeatherActivity extends AppCompatActivity implements View.OnClickLi
 
             @Override
             public void onError(Exception e) {
+                // 天气代号不会变，缓存的旧内容可以照用；天气的旧内容不能当作新数据保存，按同步失败处理
+                if ("countyCode".equals(type) && e instanceof HttpUtil.StaleResponseException) {
+                    onFinish(((HttpUtil.StaleResponseException) e).body);
+                    return;
+                }
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
@@ -147,22 +208,48 @@ public class WeatherActivity extends AppCompatActivity implements View.OnClickLi
     }
 
     /**
-     * 从SharedPreferences文件中读取存储的天气信息，并显示到界面上。
+     * 显示当前天气。内存中已有快照时直接显示；进程刚启动时在后台线程根据SharedPreferences中
+     * 记录的当前城市从Weather表读取，发布为快照后再显示。
      */
     private void showWeather() {
-        SharedPreferences prefs = PreferenceManager.
-                getDefaultSharedPreferences(this);
-        cityNameText.setText(prefs.getString("city_name", ""));
-        temp1Text.setText(prefs.getString("temp1", ""));
-        temp2Text.setText(prefs.getString("temp2", ""));
-        weatherDespText.setText(prefs.getString("weather_desp", ""));
-        publishText.setText("今天" + prefs.getString("publish_time", "") + "发布");
-        currentDateText.setText(prefs.getString("current_date", ""));
+        CurrentWeather.Snapshot snapshot = CurrentWeather.get();
+        if (snapshot != null) {
+            render(snapshot);
+        } else {
+            new AsyncTask<Void, Void, CurrentWeather.Snapshot>() {
+                @Override
+                protected CurrentWeather.Snapshot doInBackground(Void... voids) {
+                    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+                    CurrentWeather.publishIfCurrent(CoolWeatherDB.getInstance(getApplicationContext())
+                            .loadWeather(prefs.getString("weather_code", null)));
+                    return CurrentWeather.get();
+                }
+
+                @Override
+                protected void onPostExecute(CurrentWeather.Snapshot snapshot) {
+                    render(snapshot);
+                }
+            }.execute();
+        }
+    }
+
+    /**
+     * 把快照显示到界面上，snapshot为null时显示空白
+     */
+    private void render(CurrentWeather.Snapshot snapshot) {
+        if (snapshot == null) {
+            snapshot = new CurrentWeather.Snapshot(new WeatherInfo(null, null, null, null, null, null), null, 0);
+        }
+        WeatherInfo weatherInfo = snapshot.getWeatherInfo();
+        cityNameText.setText(weatherInfo.getCityName());
+        temp1Text.setText(weatherInfo.getTemp1());
+        temp2Text.setText(weatherInfo.getTemp2());
+        weatherDespText.setText(weatherInfo.getWeatherDesp());
+        publishText.setText("今天" + (weatherInfo.getPublishTime() == null ? "" : weatherInfo.getPublishTime())
+                + "发布");
+        currentDateText.setText(snapshot.getUpdateDate());
         weatherInfoLayout.setVisibility(View.VISIBLE);
         cityNameText.setVisibility(View.VISIBLE);
-
-        Intent intent = new Intent(this, AutoUpdateService.class);
-        startService(intent);
     }
 
     @Override
@@ -176,9 +263,9 @@ public class WeatherActivity extends AppCompatActivity implements View.OnClickLi
                 break;
             case R.id.refresh_weather:
                 publishText.setText("同步中...");
-                SharedPreferences prefs = PreferenceManager.
-                        getDefaultSharedPreferences(this);
-                String weatherCode = prefs.getString("weather_code", "");
+                CurrentWeather.Snapshot snapshot = CurrentWeather.get();
+                String weatherCode = snapshot != null ? snapshot.getWeatherCode()
+                        : PreferenceManager.getDefaultSharedPreferences(this).getString("weather_code", "");
                 if (!TextUtils.isEmpty(weatherCode)) {
                     queryWeatherInfo(weatherCode);
                 }
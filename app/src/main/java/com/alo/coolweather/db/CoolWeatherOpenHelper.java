@@ -33,20 +33,85 @@ public class CoolWeatherOpenHelper extends SQLiteOpenHelper {
             + "county_name text, "
             + "county_code text, "
             + "city_id integer)";
+    /**
+     * Weather表建表语句，由第3版升级步骤创建
+     */
+    public static final String CREATE_WEATHER = "create table Weather ("
+            + "weather_code text primary key, "
+            + "city_name text, "
+            + "temp1 text, "
+            + "temp2 text, "
+            + "weather_desp text, "
+            + "publish_time text, "
+            + "update_date text, "
+            + "updated_at integer)";
+
+    private final int version;
+    private final RegionAssetInstaller assetInstaller;
+    private boolean assetChecked;
 
+    /**
+     * 构造时不做任何I/O，打包数据库的安装推迟到第一次打开数据库时
+     */
     public CoolWeatherOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
         super(context, name, factory, version);
+        this.version = version;
+        assetInstaller = name != null ? new RegionAssetInstaller(context, name) : null;
+    }
+
+    /**
+     * 数据库文件不存在时先安装APK中打包的省市县数据库，打开时再由onUpgrade升级到version。
+     * 会复制文件，应在后台线程调用
+     */
+    @Override
+    public synchronized SQLiteDatabase getWritableDatabase() {
+        installAssetIfAbsent();
+        return super.getWritableDatabase();
+    }
+
+    @Override
+    public synchronized SQLiteDatabase getReadableDatabase() {
+        installAssetIfAbsent();
+        return super.getReadableDatabase();
     }
 
+    /**
+     * 只在第一次打开前检查一次，之后文件已经存在
+     */
+    private void installAssetIfAbsent() {
+        if (assetInstaller != null && !assetChecked) {
+            assetChecked = true;
+            assetInstaller.installIfAbsent();
+        }
+    }
+
+    /**
+     * 先建出初始版本的表，再走一遍升级步骤，保证新安装和升级上来的数据库结构完全一致
+     */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL(CREATE_PROVINCE);
         sqLiteDatabase.execSQL(CREATE_CITY);
         sqLiteDatabase.execSQL(CREATE_COUNTY);
+        Migrations.migrate(sqLiteDatabase, Migrations.BASE_VERSION, version);
     }
 
+    /**
+     * SQLiteOpenHelper已将onUpgrade包在事务中，任一步骤失败都会整体回滚
+     */
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        Migrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
 
+    /**
+     * 结构升级完成后再合并新版打包数据，attach不能在事务中执行，所以放在这里
+     */
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+        if (assetInstaller != null && !sqLiteDatabase.isReadOnly()) {
+            assetInstaller.mergeIfOutdated(sqLiteDatabase);
+        }
     }
 }
@@ -0,0 +1,29 @@
+package com.alo.coolweather.db;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * 一个数据库升级步骤，负责把数据库从 version - 1 升级到 version，
+ * 升级过程中不能丢失已有数据。
+ * Created by alo on 2016/12/22.
+ */
+
+public abstract class Migration {
+    private final int version;
+
+    protected Migration(int version) {
+        this.version = version;
+    }
+
+    /**
+     * 执行完该步骤后数据库所处的版本
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * 执行升级，调用方保证处于同一个事务中
+     */
+    public abstract void migrate(SQLiteDatabase db);
+}
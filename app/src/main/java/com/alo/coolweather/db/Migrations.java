@@ -0,0 +1,94 @@
+package com.alo.coolweather.db;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * 按版本顺序登记的所有数据库升级步骤。新增表结构变更时在MIGRATIONS末尾追加一项，
+ * 版本号必须连续，LATEST_VERSION会自动跟随。
+ * Created by alo on 2016/12/22.
+ */
+
+public class Migrations {
+    /**
+     * 初始版本，即CoolWeatherOpenHelper中建表语句对应的版本
+     */
+    public static final int BASE_VERSION = 1;
+
+    private static final Migration[] MIGRATIONS = {
+            new Migration(2) {
+                /**
+                 * 为外键列加索引，为各级代号加唯一约束。加约束前先合并重复的代号，
+                 * 子级数据改为指向保留下来的那一行，不会丢失数据。
+                 */
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    mergeDuplicates(db, "Province", "province_code", "City", "province_id");
+                    mergeDuplicates(db, "City", "city_code", "County", "city_id");
+                    mergeDuplicates(db, "County", "county_code", null, null);
+                    db.execSQL("create index if not exists index_city_province_id on City (province_id)");
+                    db.execSQL("create index if not exists index_county_city_id on County (city_id)");
+                    db.execSQL("create unique index if not exists index_province_code on Province (province_code)");
+                    db.execSQL("create unique index if not exists index_city_code on City (city_code)");
+                    db.execSQL("create unique index if not exists index_county_code on County (county_code)");
+                }
+            },
+            new Migration(3) {
+                /**
+                 * 天气数据从SharedPreferences移到Weather表，以天气代号为主键，可以保存多个城市
+                 */
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL(CoolWeatherOpenHelper.CREATE_WEATHER);
+                }
+            },
+            new Migration(4) {
+                /**
+                 * 县级代号对应的天气代号，查询过一次后保存下来，之后查看天气不再多一次网络请求
+                 */
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("alter table County add column weather_code text");
+                }
+            },
+    };
+
+    /**
+     * 当前最新的数据库版本
+     */
+    public static final int LATEST_VERSION = BASE_VERSION + MIGRATIONS.length;
+
+    private Migrations() {
+    }
+
+    /**
+     * 依次执行 (oldVersion, newVersion] 区间内的升级步骤，整个过程处于调用方的事务中
+     */
+    public static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < BASE_VERSION || newVersion > LATEST_VERSION || oldVersion > newVersion) {
+            throw new IllegalArgumentException("Cannot migrate from " + oldVersion + " to " + newVersion);
+        }
+        for (Migration migration : MIGRATIONS) {
+            int version = migration.getVersion();
+            if (version > oldVersion && version <= newVersion) {
+                migration.migrate(db);
+            }
+        }
+    }
+
+    /**
+     * 同一代号只保留id最小的一行，子表中指向被删除行的外键改为指向保留行
+     */
+    private static void mergeDuplicates(SQLiteDatabase db, String table, String codeColumn,
+                                        String childTable, String foreignKey) {
+        String duplicates = "select id from " + table + " where " + codeColumn + " is not null"
+                + " and id not in (select min(id) from " + table + " group by " + codeColumn + ")";
+        if (childTable != null) {
+            db.execSQL("update " + childTable + " set " + foreignKey + " = ("
+                    + "select min(kept.id) from " + table + " kept, " + table + " dup"
+                    + " where dup.id = " + childTable + "." + foreignKey
+                    + " and kept." + codeColumn + " = dup." + codeColumn + ")"
+                    + " where " + foreignKey + " in (" + duplicates + ")");
+        }
+        db.execSQL("delete from " + table + " where id in (" + duplicates + ")");
+    }
+}
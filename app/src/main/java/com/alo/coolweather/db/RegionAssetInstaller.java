@@ -0,0 +1,164 @@
+package com.alo.coolweather.db;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 随APK打包的省市县数据库。资源放在assets/databases/&lt;数据库名&gt;.db，是用本应用建出的同结构数据库，
+ * 其PRAGMA user_version即结构版本。首次打开时整个文件复制过去，之后由SQLiteOpenHelper按
+ * Migrations把结构升级到最新；已有数据库在资源版本更新后按代号合并新增的省市县。
+ * 没有打包该资源时什么都不做，仍按原来的方式从服务器逐级获取。
+ * Created by alo on 2016/12/27.
+ */
+
+public class RegionAssetInstaller {
+    private static final String TAG = "RegionAssetInstaller";
+    /**
+     * 打包的省市县数据版本，替换assets中的数据库时递增，已安装的用户会在下次打开时合并新数据
+     */
+    public static final int ASSET_VERSION = 1;
+
+    private static final String PREFS_NAME = "region_asset";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Context context;
+    private final String name;
+
+    public RegionAssetInstaller(Context context, String name) {
+        this.context = context.getApplicationContext();
+        this.name = name;
+    }
+
+    /**
+     * 数据库文件还不存在时，用打包的数据库整体复制一份，返回是否安装了
+     */
+    public boolean installIfAbsent() {
+        File target = context.getDatabasePath(name);
+        if (target.exists()) {
+            return false;
+        }
+        InputStream asset = openAsset();
+        if (asset == null) {
+            return false;
+        }
+        try {
+            install(asset, target);
+            setInstalledVersion(ASSET_VERSION);
+            Log.i(TAG, "installed " + target.length() + " bytes into " + name);
+            return true;
+        } catch (IOException e) {
+            // 复制失败时按空数据库处理，省市县仍可从服务器获取
+            Log.w(TAG, "install failed", e);
+            return false;
+        }
+    }
+
+    /**
+     * 已安装的资源版本低于ASSET_VERSION时合并新数据，须在结构升级完成后、事务之外调用
+     */
+    public void mergeIfOutdated(SQLiteDatabase db) {
+        if (getInstalledVersion() >= ASSET_VERSION) {
+            return;
+        }
+        InputStream asset = openAsset();
+        if (asset == null) {
+            return;
+        }
+        File copy = new File(context.getCacheDir(), name + ".asset");
+        try {
+            install(asset, copy);
+            merge(db, copy);
+            setInstalledVersion(ASSET_VERSION);
+        } catch (IOException e) {
+            Log.w(TAG, "merge failed", e);
+        } finally {
+            copy.delete();
+        }
+    }
+
+    /**
+     * 先写入临时文件再改名，中途失败不会留下半个数据库
+     */
+    static void install(InputStream in, File target) throws IOException {
+        File dir = target.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File tmp = new File(target.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+            in.close();
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Cannot rename " + tmp + " to " + target);
+        }
+    }
+
+    /**
+     * 把另一个数据库中的省市县按代号并入db，已有代号的行保持不变（依赖第2版加的唯一索引），
+     * 子级的外键按代号换算成db中的id。整个合并在一个事务中完成。
+     */
+    static void merge(SQLiteDatabase db, File source) {
+        db.execSQL("attach database ? as asset", new Object[]{source.getPath()});
+        try {
+            db.beginTransaction();
+            try {
+                db.execSQL("insert or ignore into Province (province_name, province_code)"
+                        + " select province_name, province_code from asset.Province order by id");
+                db.execSQL("insert or ignore into City (city_name, city_code, province_id)"
+                        + " select c.city_name, c.city_code, p.id from asset.City c"
+                        + " join asset.Province ap on ap.id = c.province_id"
+                        + " join main.Province p on p.province_code = ap.province_code order by c.id");
+                db.execSQL("insert or ignore into County (county_name, county_code, city_id)"
+                        + " select c.county_name, c.county_code, ci.id from asset.County c"
+                        + " join asset.City ac on ac.id = c.city_id"
+                        + " join main.City ci on ci.city_code = ac.city_code order by c.id");
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            db.execSQL("detach database asset");
+        }
+    }
+
+    private InputStream openAsset() {
+        try {
+            return context.getAssets().open("databases/" + name + ".db");
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "cannot open asset", e);
+            return null;
+        }
+    }
+
+    private int getInstalledVersion() {
+        return prefs().getInt(name, 0);
+    }
+
+    private void setInstalledVersion(int version) {
+        prefs().edit().putInt(name, version).apply();
+    }
+
+    private SharedPreferences prefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
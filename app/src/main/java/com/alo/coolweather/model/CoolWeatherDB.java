@@ -2,38 +2,106 @@ package com.alo.coolweather.model;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.util.SparseArray;
 
 import com.alo.coolweather.db.CoolWeatherOpenHelper;
+import com.alo.coolweather.db.Migrations;
+import com.alo.coolweather.util.Histogram;
+import com.alo.coolweather.util.Metrics;
+import com.alo.coolweather.util.RegionSearchIndex;
+import com.alo.coolweather.util.RegionSnapshot;
+import com.alo.coolweather.util.WorkerPool;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Created by alo on 2016/12/14.
  */
 
 public class CoolWeatherDB {
+    private static final String TAG = "CoolWeatherDB";
+
     /**
      * 数据库名
      */
     public static final String DB_NAME = "cool_weather";
     /**
-     * 数据库版本
+     * 数据库版本，随Migrations中登记的升级步骤递增
+     */
+    public static final int VERSION = Migrations.LATEST_VERSION;
+
+    /* 持有私有静态实例，防止被引用，此处赋值为null，目的是实现延迟加载。
+     * getInstance在锁外读取，必须是volatile，否则其他线程可能看到构造尚未完成的实例 */
+    private static volatile CoolWeatherDB coolWeatherDB;
+
+    private final SQLiteDatabase db;
+
+    /**
+     * 批量写入（省市县、天气）每次事务的耗时和行数，以及缓存未命中时的查询耗时
+     */
+    private static final Histogram insertLatency = Metrics.histogram("db.insert_batch_us");
+    private static final Metrics.Counter insertedRows = Metrics.counter("db.rows_written");
+    private static final Histogram queryLatency = Metrics.histogram("db.query_us");
+    /**
+     * 天气批量写入失败的次数；失败后第一次重试前等待1秒，之后翻倍，最多1分钟
      */
-    public static final int VERSION = 1;
+    private static final Metrics.Counter weatherFlushFailures = Metrics.counter("db.weather_flush_failures");
+    private static final long FLUSH_RETRY_BASE_MILLIS = 1000;
+    private static final long MAX_FLUSH_RETRY_MILLIS = 60 * 1000;
 
-    /* 持有私有静态实例，防止被引用，此处赋值为null，目的是实现延迟加载 */
-    private static CoolWeatherDB coolWeatherDB;
+    /**
+     * 进程内的省市县缓存，省市县数据几乎只读，首次加载后的导航不再访问SQLite。
+     * 所有写入都经过本类，写入后按父级id失效对应的列表。
+     */
+    private final Object cacheLock = new Object();
+    private List<Province> provinceCache;
+    private final SparseArray<List<City>> cityCache = new SparseArray<>();
+    private final SparseArray<List<County>> countyCache = new SparseArray<>();
 
-    private SQLiteDatabase db;
+    /**
+     * 天气写入在单独的线程上合并执行，尚未落盘的数据按天气代号暂存在这里，读取时优先返回
+     */
+    private final WorkerPool weatherWriter = new WorkerPool("weather-writer", 1, 4);
+    private final Map<String, Weather> pendingWeather = new LinkedHashMap<>();
+    private boolean weatherFlushScheduled;
+    /**
+     * 连续写入失败的次数，决定下一次重试前的等待
+     */
+    private int weatherFlushRetries;
+
+    /**
+     * 省市县前缀搜索索引，第一次使用时建立，之后随入库增量更新
+     */
+    private final Object searchLock = new Object();
+    private volatile RegionSearchIndex searchIndex;
 
     /**
      * 构造方法私有化，防止被实例化
      */
     private CoolWeatherDB(Context context) {
-        CoolWeatherOpenHelper coolWeatherOpenHelper = new CoolWeatherOpenHelper(context, DB_NAME, null, VERSION);
+        this(context, DB_NAME);
+        migrateWeatherPreferences(context);
+    }
+
+    /**
+     * 指定数据库名创建实例，仅供测试使用，避免污染正式数据库
+     */
+    CoolWeatherDB(Context context, String name) {
+        CoolWeatherOpenHelper coolWeatherOpenHelper = new CoolWeatherOpenHelper(context, name, null, VERSION);
         db = coolWeatherOpenHelper.getWritableDatabase();
     }
 
@@ -89,10 +157,12 @@ public class CoolWeatherDB {
     }
 
     public static CoolWeatherDB getInstance(Context context) {
-        if (coolWeatherDB == null) {
+        CoolWeatherDB instance = coolWeatherDB;
+        if (instance == null) {
             synInit(context);
+            instance = coolWeatherDB;
         }
-        return coolWeatherDB;
+        return instance;
     }
 
     /* 如果该对象被用于序列化，可以保证对象在序列化前后保持一致 */
@@ -108,24 +178,98 @@ public class CoolWeatherDB {
             ContentValues contentValues = new ContentValues();
             contentValues.put("province_name", province.getProvinceName());
             contentValues.put("province_code", province.getProvinceCode());
-            db.insert("Province", null, contentValues);
+            long id = db.insertWithOnConflict("Province", null, contentValues, SQLiteDatabase.CONFLICT_IGNORE);
+            invalidateProvinces();
+            if (id != -1) {
+                addToSearchIndex(Collections.singletonList(new RegionSearchIndex.Region(
+                        RegionSearchIndex.LEVEL_PROVINCE, (int) id, 0,
+                        province.getProvinceName(), province.getProvinceCode())));
+            }
         }
     }
 
     /**
-     * 从数据库读取全国所有的省份信息
+     * 在同一个事务中批量存储province实例，所有行复用一条预编译的插入语句，
+     * 只提交一次日志。代号已存在的行会被忽略，回填的是已有行的id。
+     */
+    public void saveProvinces(List<Province> provinces) {
+        if (provinces == null || provinces.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        SQLiteStatement statement = db.compileStatement(
+                "insert or ignore into Province (province_name, province_code) values (?, ?)");
+        SQLiteStatement lookup = db.compileStatement("select id from Province where province_code = ?");
+        int inserted = 0;
+        db.beginTransaction();
+        try {
+            for (Province province : provinces) {
+                statement.clearBindings();
+                bindText(statement, 1, province.getProvinceName());
+                bindText(statement, 2, province.getProvinceCode());
+                long id = statement.executeInsert();
+                if (id == -1) {
+                    id = lookupId(lookup, province.getProvinceCode());
+                } else {
+                    inserted++;
+                }
+                province.setId((int) id);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+            lookup.close();
+        }
+        insertLatency.recordSince(start);
+        insertedRows.add(inserted);
+        invalidateProvinces();
+        if (searchIndex != null) {
+            List<RegionSearchIndex.Region> regions = new ArrayList<>(provinces.size());
+            for (Province province : provinces) {
+                regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_PROVINCE, province.getId(), 0,
+                        province.getProvinceName(), province.getProvinceCode()));
+            }
+            addToSearchIndex(regions);
+        }
+    }
+
+    /**
+     * 读取全国所有的省份信息，优先使用进程内缓存，返回的列表不可修改
      */
     public List<Province> loadProvince() {
-        List<Province> provinces = new ArrayList<>();
-        Cursor cursor = db.query("Province", null, null, null, null, null, null);
-        if (cursor.moveToFirst()) {
-            do {
+        synchronized (cacheLock) {
+            if (provinceCache == null) {
+                long start = System.nanoTime();
+                provinceCache = Collections.unmodifiableList(queryProvinces());
+                queryLatency.recordSince(start);
+            }
+            return provinceCache;
+        }
+    }
+
+    /**
+     * 从数据库读取全国所有的省份信息
+     */
+    private List<Province> queryProvinces() {
+        List<Province> provinces;
+        Cursor cursor = db.query("Province", new String[]{"id", "province_name", "province_code"},
+                null, null, null, null, "id");
+        try {
+            provinces = new ArrayList<>(cursor.getCount());
+            // 列序号只取一次，不在每一行上重复getColumnIndex
+            int idIndex = cursor.getColumnIndex("id");
+            int nameIndex = cursor.getColumnIndex("province_name");
+            int codeIndex = cursor.getColumnIndex("province_code");
+            while (cursor.moveToNext()) {
                 Province province = new Province();
-                province.setId(cursor.getInt(cursor.getColumnIndex("id")));
-                province.setProvinceName(cursor.getString(cursor.getColumnIndex("province_name")));
-                province.setProvinceCode(cursor.getString(cursor.getColumnIndex("province_code")));
+                province.setId(cursor.getInt(idIndex));
+                province.setProvinceName(cursor.getString(nameIndex));
+                province.setProvinceCode(cursor.getString(codeIndex));
                 provinces.add(province);
-            } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
         }
         return provinces;
     }
@@ -139,25 +283,102 @@ public class CoolWeatherDB {
             contentValues.put("city_name", city.getCityName());
             contentValues.put("city_code", city.getCityCode());
             contentValues.put("province_id", city.getProvinceId());
-            db.insert("City", null, contentValues);
+            long id = db.insertWithOnConflict("City", null, contentValues, SQLiteDatabase.CONFLICT_IGNORE);
+            invalidateCities(city.getProvinceId());
+            if (id != -1) {
+                addToSearchIndex(Collections.singletonList(new RegionSearchIndex.Region(
+                        RegionSearchIndex.LEVEL_CITY, (int) id, city.getProvinceId(),
+                        city.getCityName(), city.getCityCode())));
+            }
         }
     }
 
     /**
-     * 从数据库读取某省的城市信息
+     * 在同一个事务中批量存储City实例，插入成功后会回填每个实例的id。
+     */
+    public void saveCities(List<City> cities) {
+        if (cities == null || cities.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        SQLiteStatement statement = db.compileStatement(
+                "insert or ignore into City (city_name, city_code, province_id) values (?, ?, ?)");
+        SQLiteStatement lookup = db.compileStatement("select id from City where city_code = ?");
+        int inserted = 0;
+        db.beginTransaction();
+        try {
+            for (City city : cities) {
+                statement.clearBindings();
+                bindText(statement, 1, city.getCityName());
+                bindText(statement, 2, city.getCityCode());
+                statement.bindLong(3, city.getProvinceId());
+                long id = statement.executeInsert();
+                if (id == -1) {
+                    id = lookupId(lookup, city.getCityCode());
+                } else {
+                    inserted++;
+                }
+                city.setId((int) id);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+            lookup.close();
+        }
+        insertLatency.recordSince(start);
+        insertedRows.add(inserted);
+        for (City city : cities) {
+            invalidateCities(city.getProvinceId());
+        }
+        if (searchIndex != null) {
+            List<RegionSearchIndex.Region> regions = new ArrayList<>(cities.size());
+            for (City city : cities) {
+                regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_CITY, city.getId(),
+                        city.getProvinceId(), city.getCityName(), city.getCityCode()));
+            }
+            addToSearchIndex(regions);
+        }
+    }
+
+    /**
+     * 读取某省的城市信息，优先使用进程内缓存，返回的列表不可修改
      */
     public List<City> loadCity(int provinceId) {
-        List<City> cities = new ArrayList<>();
-        Cursor cursor = db.query("City", null, "province_id=?", new String[]{String.valueOf(provinceId)}, null, null, null);
-        if (cursor.moveToFirst()) {
-            do {
+        synchronized (cacheLock) {
+            List<City> cities = cityCache.get(provinceId);
+            if (cities == null) {
+                long start = System.nanoTime();
+                cities = Collections.unmodifiableList(queryCities(provinceId));
+                queryLatency.recordSince(start);
+                cityCache.put(provinceId, cities);
+            }
+            return cities;
+        }
+    }
+
+    /**
+     * 从数据库读取某省的城市信息
+     */
+    private List<City> queryCities(int provinceId) {
+        List<City> cities;
+        Cursor cursor = db.query("City", new String[]{"id", "city_name", "city_code"},
+                "province_id=?", new String[]{String.valueOf(provinceId)}, null, null, "id");
+        try {
+            cities = new ArrayList<>(cursor.getCount());
+            int idIndex = cursor.getColumnIndex("id");
+            int nameIndex = cursor.getColumnIndex("city_name");
+            int codeIndex = cursor.getColumnIndex("city_code");
+            while (cursor.moveToNext()) {
                 City city = new City();
-                city.setId(cursor.getInt(cursor.getColumnIndex("id")));
-                city.setProvinceId(cursor.getInt(cursor.getColumnIndex("province_id")));
-                city.setCityName(cursor.getString(cursor.getColumnIndex("city_name")));
-                city.setCityCode(cursor.getString(cursor.getColumnIndex("city_code")));
+                city.setId(cursor.getInt(idIndex));
+                city.setProvinceId(provinceId);
+                city.setCityName(cursor.getString(nameIndex));
+                city.setCityCode(cursor.getString(codeIndex));
                 cities.add(city);
-            } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
         }
         return cities;
     }
@@ -171,28 +392,833 @@ public class CoolWeatherDB {
             contentValues.put("county_name", county.getCountyName());
             contentValues.put("county_code", county.getCountyCode());
             contentValues.put("city_id", county.getCityId());
-            db.insert("County", null, contentValues);
+            long id = db.insertWithOnConflict("County", null, contentValues, SQLiteDatabase.CONFLICT_IGNORE);
+            invalidateCounties(county.getCityId());
+            if (id != -1) {
+                addToSearchIndex(Collections.singletonList(new RegionSearchIndex.Region(
+                        RegionSearchIndex.LEVEL_COUNTY, (int) id, county.getCityId(),
+                        county.getCountyName(), county.getCountyCode())));
+            }
         }
     }
 
     /**
-     * 从数据库读取某城市下所有的县信息。
+     * 在同一个事务中批量存储county实例，插入成功后会回填每个实例的id。
+     */
+    public void saveCounties(List<County> counties) {
+        if (counties == null || counties.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        SQLiteStatement statement = db.compileStatement(
+                "insert or ignore into County (county_name, county_code, city_id) values (?, ?, ?)");
+        SQLiteStatement lookup = db.compileStatement("select id from County where county_code = ?");
+        int inserted = 0;
+        db.beginTransaction();
+        try {
+            for (County county : counties) {
+                statement.clearBindings();
+                bindText(statement, 1, county.getCountyName());
+                bindText(statement, 2, county.getCountyCode());
+                statement.bindLong(3, county.getCityId());
+                long id = statement.executeInsert();
+                if (id == -1) {
+                    id = lookupId(lookup, county.getCountyCode());
+                } else {
+                    inserted++;
+                }
+                county.setId((int) id);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+            lookup.close();
+        }
+        insertLatency.recordSince(start);
+        insertedRows.add(inserted);
+        for (County county : counties) {
+            invalidateCounties(county.getCityId());
+        }
+        if (searchIndex != null) {
+            List<RegionSearchIndex.Region> regions = new ArrayList<>(counties.size());
+            for (County county : counties) {
+                regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_COUNTY, county.getId(),
+                        county.getCityId(), county.getCountyName(), county.getCountyCode()));
+            }
+            addToSearchIndex(regions);
+        }
+    }
+
+    /**
+     * 读取某城市下所有的县信息，优先使用进程内缓存，返回的列表不可修改
      */
     public List<County> loadCounties(int cityId) {
-        List<County> counties = new ArrayList<>();
-        Cursor cursor = db.query("County", null, "city_id=?", new String[]{String.valueOf(cityId)}, null, null, null);
-        if (cursor.moveToFirst()) {
-            do {
+        synchronized (cacheLock) {
+            List<County> counties = countyCache.get(cityId);
+            if (counties == null) {
+                long start = System.nanoTime();
+                counties = Collections.unmodifiableList(queryCounties(cityId));
+                queryLatency.recordSince(start);
+                countyCache.put(cityId, counties);
+            }
+            return counties;
+        }
+    }
+
+    /**
+     * 从数据库读取某城市下所有的县信息。
+     */
+    private List<County> queryCounties(int cityId) {
+        List<County> counties;
+        Cursor cursor = db.query("County", new String[]{"id", "county_name", "county_code"},
+                "city_id=?", new String[]{String.valueOf(cityId)}, null, null, "id");
+        try {
+            counties = new ArrayList<>(cursor.getCount());
+            int idIndex = cursor.getColumnIndex("id");
+            int nameIndex = cursor.getColumnIndex("county_name");
+            int codeIndex = cursor.getColumnIndex("county_code");
+            while (cursor.moveToNext()) {
                 County county = new County();
-                county.setId(cursor.getInt(cursor.getColumnIndex("id")));
-                county.setCityId(cursor.getInt(cursor.getColumnIndex("city_id")));
-                county.setCountyName(cursor.getString(cursor.getColumnIndex("county_name")));
-                county.setCountyCode(cursor.getString(cursor.getColumnIndex("county_code")));
+                county.setId(cursor.getInt(idIndex));
+                county.setCityId(cityId);
+                county.setCountyName(cursor.getString(nameIndex));
+                county.setCountyCode(cursor.getString(codeIndex));
                 counties.add(county);
-            } while (cursor.moveToNext());
+            }
+        } finally {
+            cursor.close();
         }
         return counties;
     }
 
+    /**
+     * 省级增量同步：按代号与Province表比较，只写入新增、改名和删除，在一个事务中完成，会回填每个实例的id。
+     * 数据没有变化时不写任何行。
+     */
+    public RegionDelta syncProvinces(List<Province> provinces) {
+        if (provinces == null || provinces.isEmpty()) {
+            return RegionDelta.EMPTY;
+        }
+        RegionRows rows = new RegionRows(0, provinces.size());
+        for (int i = 0; i < provinces.size(); i++) {
+            rows.codes[i] = provinces.get(i).getProvinceCode();
+            rows.names[i] = provinces.get(i).getProvinceName();
+        }
+        RegionDelta delta = syncRegions(PROVINCE_TABLE, Collections.singletonList(rows));
+        for (int i = 0; i < provinces.size(); i++) {
+            provinces.get(i).setId(rows.ids[i]);
+        }
+        return delta;
+    }
+
+    /**
+     * 市级增量同步，只比较provinceId下的城市
+     */
+    public RegionDelta syncCities(int provinceId, List<City> cities) {
+        return syncCities(Collections.singletonMap(provinceId, cities));
+    }
+
+    /**
+     * 多个省的市级增量同步，所有省在同一个事务中完成。列表为空的省视为没有取到数据，不做改动。
+     */
+    public RegionDelta syncCities(Map<Integer, List<City>> citiesByProvince) {
+        List<RegionRows> batches = new ArrayList<>(citiesByProvince.size());
+        for (Map.Entry<Integer, List<City>> entry : citiesByProvince.entrySet()) {
+            List<City> cities = entry.getValue();
+            if (cities == null || cities.isEmpty()) {
+                continue;
+            }
+            RegionRows rows = new RegionRows(entry.getKey(), cities.size());
+            for (int i = 0; i < cities.size(); i++) {
+                rows.codes[i] = cities.get(i).getCityCode();
+                rows.names[i] = cities.get(i).getCityName();
+            }
+            batches.add(rows);
+        }
+        RegionDelta delta = syncRegions(CITY_TABLE, batches);
+        int batch = 0;
+        for (List<City> cities : citiesByProvince.values()) {
+            if (cities == null || cities.isEmpty()) {
+                continue;
+            }
+            RegionRows rows = batches.get(batch++);
+            for (int i = 0; i < cities.size(); i++) {
+                cities.get(i).setId(rows.ids[i]);
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * 县级增量同步，只比较cityId下的县
+     */
+    public RegionDelta syncCounties(int cityId, List<County> counties) {
+        return syncCounties(Collections.singletonMap(cityId, counties));
+    }
+
+    /**
+     * 多个城市的县级增量同步，所有城市在同一个事务中完成。列表为空的城市视为没有取到数据，不做改动。
+     */
+    public RegionDelta syncCounties(Map<Integer, List<County>> countiesByCity) {
+        List<RegionRows> batches = new ArrayList<>(countiesByCity.size());
+        for (Map.Entry<Integer, List<County>> entry : countiesByCity.entrySet()) {
+            List<County> counties = entry.getValue();
+            if (counties == null || counties.isEmpty()) {
+                continue;
+            }
+            RegionRows rows = new RegionRows(entry.getKey(), counties.size());
+            for (int i = 0; i < counties.size(); i++) {
+                rows.codes[i] = counties.get(i).getCountyCode();
+                rows.names[i] = counties.get(i).getCountyName();
+            }
+            batches.add(rows);
+        }
+        RegionDelta delta = syncRegions(COUNTY_TABLE, batches);
+        int batch = 0;
+        for (List<County> counties : countiesByCity.values()) {
+            if (counties == null || counties.isEmpty()) {
+                continue;
+            }
+            RegionRows rows = batches.get(batch++);
+            for (int i = 0; i < counties.size(); i++) {
+                counties.get(i).setId(rows.ids[i]);
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * 对每个上级读出现有的行，按代号与新数据比较：没有的插入，名称不同的改名，多出来的连同下级一起删除。
+     * 代号已经属于其他上级的行会被移到这个上级下，计为新增。
+     */
+    private RegionDelta syncRegions(RegionTable table, List<RegionRows> batches) {
+        if (batches.isEmpty()) {
+            return RegionDelta.EMPTY;
+        }
+        long start = System.nanoTime();
+        int inserted = 0;
+        int renamed = 0;
+        int deleted = 0;
+        int unchanged = 0;
+        // 有改名、删除或移动时，下级缓存和搜索索引无法增量更新
+        boolean structural = false;
+        List<RegionSearchIndex.Region> added = new ArrayList<>();
+        String parentClause = table.parentColumn == null ? null : table.parentColumn + "=?";
+        SQLiteStatement insert = db.compileStatement(table.parentColumn == null
+                ? "insert or ignore into " + table.name + " (" + table.nameColumn + ", " + table.codeColumn
+                + ") values (?, ?)"
+                : "insert or ignore into " + table.name + " (" + table.nameColumn + ", " + table.codeColumn + ", "
+                + table.parentColumn + ") values (?, ?, ?)");
+        SQLiteStatement rename = db.compileStatement("update " + table.name + " set " + table.nameColumn
+                + " = ? where id = ?");
+        SQLiteStatement adopt = table.parentColumn == null ? null : db.compileStatement("update " + table.name
+                + " set " + table.nameColumn + " = ?, " + table.parentColumn + " = ? where " + table.codeColumn + " = ?");
+        SQLiteStatement lookup = db.compileStatement("select id from " + table.name + " where " + table.codeColumn
+                + " = ?");
+        db.beginTransaction();
+        try {
+            for (RegionRows rows : batches) {
+                Map<String, Integer> existingIds = new HashMap<>();
+                Map<String, String> existingNames = new HashMap<>();
+                Cursor cursor = db.query(table.name, new String[]{"id", table.nameColumn, table.codeColumn},
+                        parentClause, parentClause == null ? null : new String[]{String.valueOf(rows.parentId)},
+                        null, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        existingIds.put(cursor.getString(2), cursor.getInt(0));
+                        existingNames.put(cursor.getString(2), cursor.getString(1));
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                // 同一响应中重复的代号只处理第一次
+                Map<String, Integer> synced = new HashMap<>(rows.codes.length * 2);
+                for (int i = 0; i < rows.codes.length; i++) {
+                    String code = rows.codes[i];
+                    String name = rows.names[i];
+                    if (code == null) {
+                        continue;
+                    }
+                    Integer id = synced.get(code);
+                    if (id == null) {
+                        id = existingIds.remove(code);
+                        if (id != null) {
+                            String oldName = existingNames.get(code);
+                            if (name == null ? oldName == null : name.equals(oldName)) {
+                                unchanged++;
+                            } else {
+                                rename.clearBindings();
+                                bindText(rename, 1, name);
+                                rename.bindLong(2, id);
+                                rename.executeUpdateDelete();
+                                renamed++;
+                                structural = true;
+                            }
+                        } else {
+                            insert.clearBindings();
+                            bindText(insert, 1, name);
+                            bindText(insert, 2, code);
+                            if (table.parentColumn != null) {
+                                insert.bindLong(3, rows.parentId);
+                            }
+                            long newId = insert.executeInsert();
+                            if (newId == -1) {
+                                if (adopt != null) {
+                                    adopt.clearBindings();
+                                    bindText(adopt, 1, name);
+                                    adopt.bindLong(2, rows.parentId);
+                                    adopt.bindString(3, code);
+                                    adopt.executeUpdateDelete();
+                                }
+                                lookup.bindString(1, code);
+                                newId = lookup.simpleQueryForLong();
+                                structural = true;
+                            }
+                            id = (int) newId;
+                            inserted++;
+                            added.add(new RegionSearchIndex.Region(table.level, id, rows.parentId, name, code));
+                        }
+                        synced.put(code, id);
+                    }
+                    rows.ids[i] = id;
+                }
+
+                // 剩下的是服务器上已经没有的
+                for (Integer id : existingIds.values()) {
+                    deleteRegion(table.level, id);
+                    deleted++;
+                    structural = true;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+            rename.close();
+            if (adopt != null) {
+                adopt.close();
+            }
+            lookup.close();
+        }
+
+        RegionDelta delta = new RegionDelta(inserted, renamed, deleted, unchanged);
+        if (delta.isEmpty()) {
+            return delta;
+        }
+        insertLatency.recordSince(start);
+        insertedRows.add(delta.size());
+        if (structural) {
+            clearRegionCache();
+            invalidateSearchIndex();
+        } else {
+            for (RegionRows rows : batches) {
+                if (table.level == RegionSearchIndex.LEVEL_PROVINCE) {
+                    invalidateProvinces();
+                } else if (table.level == RegionSearchIndex.LEVEL_CITY) {
+                    invalidateCities(rows.parentId);
+                } else {
+                    invalidateCounties(rows.parentId);
+                }
+            }
+            addToSearchIndex(added);
+        }
+        return delta;
+    }
+
+    /**
+     * 删除一个省、市或县，以及它所有的下级
+     */
+    private void deleteRegion(int level, int id) {
+        String[] args = {String.valueOf(id)};
+        if (level == RegionSearchIndex.LEVEL_PROVINCE) {
+            db.delete("County", "city_id in (select id from City where province_id=?)", args);
+            db.delete("City", "province_id=?", args);
+            db.delete("Province", "id=?", args);
+        } else if (level == RegionSearchIndex.LEVEL_CITY) {
+            db.delete("County", "city_id=?", args);
+            db.delete("City", "id=?", args);
+        } else {
+            db.delete("County", "id=?", args);
+        }
+    }
+
+    /**
+     * 省、市、县三张表的结构，供增量同步使用
+     */
+    private static final class RegionTable {
+        final String name;
+        final String nameColumn;
+        final String codeColumn;
+        final String parentColumn;
+        final int level;
+
+        RegionTable(String name, String nameColumn, String codeColumn, String parentColumn, int level) {
+            this.name = name;
+            this.nameColumn = nameColumn;
+            this.codeColumn = codeColumn;
+            this.parentColumn = parentColumn;
+            this.level = level;
+        }
+    }
+
+    private static final RegionTable PROVINCE_TABLE = new RegionTable("Province", "province_name", "province_code",
+            null, RegionSearchIndex.LEVEL_PROVINCE);
+    private static final RegionTable CITY_TABLE = new RegionTable("City", "city_name", "city_code",
+            "province_id", RegionSearchIndex.LEVEL_CITY);
+    private static final RegionTable COUNTY_TABLE = new RegionTable("County", "county_name", "county_code",
+            "city_id", RegionSearchIndex.LEVEL_COUNTY);
+
+    /**
+     * 同一上级下从服务器取到的一组代号和名称，同步后ids[i]为对应行的id
+     */
+    private static final class RegionRows {
+        final int parentId;
+        final String[] codes;
+        final String[] names;
+        final int[] ids;
+
+        RegionRows(int parentId, int size) {
+            this.parentId = parentId;
+            codes = new String[size];
+            names = new String[size];
+            ids = new int[size];
+        }
+    }
 
+    /**
+     * 在同一个事务中保存多个城市的天气，已存在的天气代号整行覆盖
+     */
+    public void saveWeathers(List<Weather> weathers) {
+        if (weathers == null || weathers.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        SQLiteStatement statement = db.compileStatement("insert or replace into Weather (weather_code, city_name, "
+                + "temp1, temp2, weather_desp, publish_time, update_date, updated_at) values (?, ?, ?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (Weather weather : weathers) {
+                statement.clearBindings();
+                bindText(statement, 1, weather.getWeatherCode());
+                bindText(statement, 2, weather.getCityName());
+                bindText(statement, 3, weather.getTemp1());
+                bindText(statement, 4, weather.getTemp2());
+                bindText(statement, 5, weather.getWeatherDesp());
+                bindText(statement, 6, weather.getPublishTime());
+                bindText(statement, 7, weather.getUpdateDate());
+                statement.bindLong(8, weather.getUpdatedAt());
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+        insertLatency.recordSince(start);
+        insertedRows.add(weathers.size());
+    }
+
+    /**
+     * 异步保存天气，调用方线程不做任何磁盘操作。短时间内的多次保存会合并成一次事务写入。
+     * 保存后不要再修改传入的实例。
+     */
+    public void saveWeatherAsync(Weather weather) {
+        if (weather != null) {
+            saveWeathersAsync(Collections.singletonList(weather));
+        }
+    }
+
+    /**
+     * 异步保存多个城市的天气，同一批数据保证在同一个事务中写入
+     */
+    public void saveWeathersAsync(List<Weather> weathers) {
+        synchronized (pendingWeather) {
+            for (Weather weather : weathers) {
+                if (weather.getWeatherCode() != null) {
+                    pendingWeather.put(weather.getWeatherCode(), weather);
+                }
+            }
+            if (weatherFlushScheduled || pendingWeather.isEmpty()) {
+                return;
+            }
+            weatherFlushScheduled = true;
+        }
+        scheduleWeatherFlush(0);
+    }
+
+    /**
+     * 在写入线程上执行一次flushPendingWeather，delayMillis大于0时先等待。调用前weatherFlushScheduled已置为true
+     */
+    private void scheduleWeatherFlush(final long delayMillis) {
+        try {
+            weatherWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (delayMillis > 0) {
+                        try {
+                            Thread.sleep(delayMillis);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    flushPendingWeather();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 写入线程已关闭，数据留在队列中，读取时仍然可见
+            synchronized (pendingWeather) {
+                weatherFlushScheduled = false;
+            }
+        }
+    }
+
+    /**
+     * 把暂存的天气一次性写入数据库，写入完成后才从暂存区移除，期间的读取不会丢数据
+     */
+    private void flushPendingWeather() {
+        List<Weather> batch;
+        synchronized (pendingWeather) {
+            batch = new ArrayList<>(pendingWeather.values());
+            weatherFlushScheduled = false;
+        }
+        try {
+            saveWeathers(batch);
+        } catch (RuntimeException e) {
+            // 磁盘已满、数据库被锁等，数据仍在队列中，按退避稍后重试，而不是等下一次保存才顺带写入
+            Log.e(TAG, "Failed to save " + batch.size() + " weathers", e);
+            weatherFlushFailures.increment();
+            long delay;
+            synchronized (pendingWeather) {
+                weatherFlushRetries++;
+                delay = Math.min(MAX_FLUSH_RETRY_MILLIS,
+                        FLUSH_RETRY_BASE_MILLIS << Math.min(weatherFlushRetries - 1, 10));
+                if (weatherFlushScheduled) {
+                    return;
+                }
+                weatherFlushScheduled = true;
+            }
+            scheduleWeatherFlush(delay);
+            return;
+        }
+        synchronized (pendingWeather) {
+            weatherFlushRetries = 0;
+            for (Weather weather : batch) {
+                if (pendingWeather.get(weather.getWeatherCode()) == weather) {
+                    pendingWeather.remove(weather.getWeatherCode());
+                }
+            }
+        }
+    }
+
+    /**
+     * 县级代号对应的天气代号，还没有解析过时返回null
+     */
+    public String loadWeatherCode(String countyCode) {
+        if (countyCode == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Cursor cursor = db.query("County", new String[]{"weather_code"}, "county_code=?",
+                new String[]{countyCode}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+            queryLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * 某城市下还没有天气代号的县级代号
+     */
+    public List<String> loadCountyCodesWithoutWeatherCode(int cityId) {
+        List<String> codes = new ArrayList<>();
+        Cursor cursor = db.query("County", new String[]{"county_code"},
+                "city_id=? and weather_code is null", new String[]{String.valueOf(cityId)}, null, null, "id");
+        try {
+            while (cursor.moveToNext()) {
+                codes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return codes;
+    }
+
+    /**
+     * 保存县级代号到天气代号的对应关系，键为县级代号，全部在一个事务中写入。
+     * 县还没有入库时忽略。
+     */
+    public void saveWeatherCodes(Map<String, String> weatherCodes) {
+        if (weatherCodes == null || weatherCodes.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        SQLiteStatement statement = db.compileStatement("update County set weather_code = ? where county_code = ?");
+        int updated = 0;
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, String> entry : weatherCodes.entrySet()) {
+                statement.clearBindings();
+                bindText(statement, 1, entry.getValue());
+                bindText(statement, 2, entry.getKey());
+                updated += statement.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+        insertLatency.recordSince(start);
+        insertedRows.add(updated);
+    }
+
+    /**
+     * 按天气代号读取天气，没有时返回null
+     */
+    public Weather loadWeather(String weatherCode) {
+        if (weatherCode == null) {
+            return null;
+        }
+        synchronized (pendingWeather) {
+            Weather pending = pendingWeather.get(weatherCode);
+            if (pending != null) {
+                return pending;
+            }
+        }
+        long start = System.nanoTime();
+        Cursor cursor = db.query("Weather", WEATHER_COLUMNS, "weather_code=?", new String[]{weatherCode}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? readWeather(cursor) : null;
+        } finally {
+            cursor.close();
+            queryLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * 读取所有已保存城市的天气
+     */
+    public List<Weather> loadAllWeather() {
+        Map<String, Weather> weathers = new LinkedHashMap<>();
+        long start = System.nanoTime();
+        Cursor cursor = db.query("Weather", WEATHER_COLUMNS, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                Weather weather = readWeather(cursor);
+                weathers.put(weather.getWeatherCode(), weather);
+            }
+        } finally {
+            cursor.close();
+            queryLatency.recordSince(start);
+        }
+        synchronized (pendingWeather) {
+            weathers.putAll(pendingWeather);
+        }
+        return new ArrayList<>(weathers.values());
+    }
+
+    /**
+     * 查询天气时的列，readWeather按这个顺序按位置读取
+     */
+    private static final String[] WEATHER_COLUMNS = {"weather_code", "city_name", "temp1", "temp2",
+            "weather_desp", "publish_time", "update_date", "updated_at"};
+
+    private static Weather readWeather(Cursor cursor) {
+        Weather weather = new Weather();
+        weather.setWeatherCode(cursor.getString(0));
+        weather.setCityName(cursor.getString(1));
+        weather.setTemp1(cursor.getString(2));
+        weather.setTemp2(cursor.getString(3));
+        weather.setWeatherDesp(cursor.getString(4));
+        weather.setPublishTime(cursor.getString(5));
+        weather.setUpdateDate(cursor.getString(6));
+        weather.setUpdatedAt(cursor.getLong(7));
+        return weather;
+    }
+
+    /**
+     * 旧版本把当前城市的天气以零散的键存在默认SharedPreferences中，首次打开数据库时
+     * 迁移到Weather表并删除这些键。city_selected和weather_code仍保留在SharedPreferences中，
+     * 用来记录当前选中的城市。
+     */
+    private void migrateWeatherPreferences(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String weatherCode = prefs.getString("weather_code", null);
+        if (weatherCode == null || !prefs.contains("temp1")) {
+            return;
+        }
+        Weather weather = new Weather();
+        weather.setWeatherCode(weatherCode);
+        weather.setCityName(prefs.getString("city_name", ""));
+        weather.setTemp1(prefs.getString("temp1", ""));
+        weather.setTemp2(prefs.getString("temp2", ""));
+        weather.setWeatherDesp(prefs.getString("weather_desp", ""));
+        weather.setPublishTime(prefs.getString("publish_time", ""));
+        weather.setUpdateDate(prefs.getString("current_date", ""));
+        saveWeathers(Collections.singletonList(weather));
+        prefs.edit()
+                .remove("city_name")
+                .remove("temp1")
+                .remove("temp2")
+                .remove("weather_desp")
+                .remove("publish_time")
+                .remove("current_date")
+                .apply();
+    }
+
+    private void invalidateProvinces() {
+        synchronized (cacheLock) {
+            provinceCache = null;
+        }
+    }
+
+    private void invalidateCities(int provinceId) {
+        synchronized (cacheLock) {
+            cityCache.remove(provinceId);
+        }
+    }
+
+    private void invalidateCounties(int cityId) {
+        synchronized (cacheLock) {
+            countyCache.remove(cityId);
+        }
+    }
+
+    /**
+     * 省市县搜索索引，第一次调用时从各表建立，会查询数据库，只能在后台线程调用。
+     * 之后的入库会增量合并进索引，不需要重建。
+     */
+    public RegionSearchIndex getSearchIndex() {
+        RegionSearchIndex index = searchIndex;
+        if (index != null) {
+            return index;
+        }
+        synchronized (searchLock) {
+            if (searchIndex == null) {
+                List<RegionSearchIndex.Region> regions = new ArrayList<>();
+                queryRegions("Province", null, "province_name", "province_code",
+                        RegionSearchIndex.LEVEL_PROVINCE, regions);
+                queryRegions("City", "province_id", "city_name", "city_code",
+                        RegionSearchIndex.LEVEL_CITY, regions);
+                queryRegions("County", "city_id", "county_name", "county_code",
+                        RegionSearchIndex.LEVEL_COUNTY, regions);
+                searchIndex = RegionSearchIndex.build(regions, null);
+            }
+            return searchIndex;
+        }
+    }
+
+    /**
+     * 已经建立的搜索索引，还没有建立或刚被丢弃时返回null。不查询数据库，可以在主线程调用；
+     * 入库后索引会整体替换，所以每次搜索都应重新取，不要长期持有。
+     */
+    public RegionSearchIndex peekSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * 丢弃搜索索引，下一次getSearchIndex时从表中重建，用于改名和删除这类无法增量合并的改动
+     */
+    private void invalidateSearchIndex() {
+        synchronized (searchLock) {
+            searchIndex = null;
+        }
+    }
+
+    /**
+     * 索引还没有建立时什么都不做，第一次getSearchIndex会从表中读到这些数据
+     */
+    private void addToSearchIndex(List<RegionSearchIndex.Region> regions) {
+        synchronized (searchLock) {
+            if (searchIndex != null) {
+                searchIndex = searchIndex.plus(regions);
+            }
+        }
+    }
+
+    private void queryRegions(String table, String parentColumn, String nameColumn, String codeColumn,
+                              int level, List<RegionSearchIndex.Region> out) {
+        String[] columns = {"id", parentColumn == null ? "0" : parentColumn, nameColumn, codeColumn};
+        Cursor cursor = db.query(table, columns, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                out.add(new RegionSearchIndex.Region(level, cursor.getInt(0), cursor.getInt(1),
+                        cursor.getString(2), cursor.getString(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 把全部省市县写成只读的二进制快照，直接查询各表，不经过也不填充内存缓存
+     */
+    public void writeRegionSnapshot(File file) throws IOException {
+        RegionSnapshot.Writer writer = new RegionSnapshot.Writer();
+        Cursor cursor = db.query("Province", new String[]{"id", "province_name", "province_code"},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                writer.addProvince(cursor.getInt(0), cursor.getString(1), cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        cursor = db.query("City", new String[]{"id", "province_id", "city_name", "city_code"},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                writer.addCity(cursor.getInt(0), cursor.getInt(1), cursor.getString(2), cursor.getString(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        cursor = db.query("County", new String[]{"id", "city_id", "county_name", "county_code"},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                writer.addCounty(cursor.getInt(0), cursor.getInt(1), cursor.getString(2), cursor.getString(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        writer.writeTo(file);
+    }
+
+    /**
+     * 清空省市县缓存，下次读取时重新查询数据库
+     */
+    public void clearRegionCache() {
+        synchronized (cacheLock) {
+            provinceCache = null;
+            cityCache.clear();
+            countyCache.clear();
+        }
+    }
+
+    /**
+     * 插入因代号唯一约束被忽略时，按代号查出已有行的id
+     */
+    private static long lookupId(SQLiteStatement lookup, String code) {
+        if (code == null) {
+            return -1;
+        }
+        lookup.bindString(1, code);
+        return lookup.simpleQueryForLong();
+    }
+
+    /**
+     * SQLiteStatement.bindString不接受null，这里统一转换为bindNull
+     */
+    private static void bindText(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
 }
@@ -0,0 +1,64 @@
+package com.alo.coolweather.model;
+
+/**
+ * 一次省市县增量同步对数据库的改动：新增、改名和删除的行数，以及没有变化的行数。
+ * 删除一行时其下级也会被删除，下级不计入deleted。
+ * Created by alo on 2017/1/6.
+ */
+
+public class RegionDelta {
+    public static final RegionDelta EMPTY = new RegionDelta(0, 0, 0, 0);
+
+    private final int inserted;
+    private final int renamed;
+    private final int deleted;
+    private final int unchanged;
+
+    public RegionDelta(int inserted, int renamed, int deleted, int unchanged) {
+        this.inserted = inserted;
+        this.renamed = renamed;
+        this.deleted = deleted;
+        this.unchanged = unchanged;
+    }
+
+    /**
+     * 新增的行数，包括从其他上级移过来的行
+     */
+    public int getInserted() {
+        return inserted;
+    }
+
+    public int getRenamed() {
+        return renamed;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * 改动的行数
+     */
+    public int size() {
+        return inserted + renamed + deleted;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public RegionDelta plus(RegionDelta other) {
+        return new RegionDelta(inserted + other.inserted, renamed + other.renamed, deleted + other.deleted,
+                unchanged + other.unchanged);
+    }
+
+    @Override
+    public String toString() {
+        return "RegionDelta{inserted=" + inserted + ", renamed=" + renamed + ", deleted=" + deleted
+                + ", unchanged=" + unchanged + "}";
+    }
+}
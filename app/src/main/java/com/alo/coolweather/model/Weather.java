@@ -0,0 +1,92 @@
+package com.alo.coolweather.model;
+
+/**
+ * 某个城市最近一次获取到的天气，对应Weather表中以天气代号为主键的一行
+ * Created by alo on 2016/12/23.
+ */
+
+public class Weather {
+    private String weatherCode;
+    private String cityName;
+    private String temp1;
+    private String temp2;
+    private String weatherDesp;
+    private String publishTime;
+    private String updateDate;
+    private long updatedAt;
+
+    @Override
+    public String toString() {
+        return super.toString();
+    }
+
+    public String getWeatherCode() {
+        return weatherCode;
+    }
+
+    public void setWeatherCode(String weatherCode) {
+        this.weatherCode = weatherCode;
+    }
+
+    public String getCityName() {
+        return cityName;
+    }
+
+    public void setCityName(String cityName) {
+        this.cityName = cityName;
+    }
+
+    public String getTemp1() {
+        return temp1;
+    }
+
+    public void setTemp1(String temp1) {
+        this.temp1 = temp1;
+    }
+
+    public String getTemp2() {
+        return temp2;
+    }
+
+    public void setTemp2(String temp2) {
+        this.temp2 = temp2;
+    }
+
+    public String getWeatherDesp() {
+        return weatherDesp;
+    }
+
+    public void setWeatherDesp(String weatherDesp) {
+        this.weatherDesp = weatherDesp;
+    }
+
+    public String getPublishTime() {
+        return publishTime;
+    }
+
+    public void setPublishTime(String publishTime) {
+        this.publishTime = publishTime;
+    }
+
+    /**
+     * 获取天气时的日期，格式为“yyyy年M月d日”
+     */
+    public String getUpdateDate() {
+        return updateDate;
+    }
+
+    public void setUpdateDate(String updateDate) {
+        this.updateDate = updateDate;
+    }
+
+    /**
+     * 获取天气时的System.currentTimeMillis()
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
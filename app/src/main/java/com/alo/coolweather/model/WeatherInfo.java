@@ -0,0 +1,126 @@
+package com.alo.coolweather.model;
+
+/**
+ * 服务器返回的weatherinfo，解析后不可修改。气温在解析时就转换成整数摄氏度。
+ * Created by alo on 2017/1/2.
+ */
+
+public final class WeatherInfo {
+    /**
+     * 气温无法解析时的取值
+     */
+    public static final int UNKNOWN_TEMPERATURE = Integer.MIN_VALUE;
+
+    private final String weatherCode;
+    private final String cityName;
+    private final String temp1;
+    private final String temp2;
+    private final int temp1Celsius;
+    private final int temp2Celsius;
+    private final String weatherDesp;
+    private final String publishTime;
+
+    public WeatherInfo(String weatherCode, String cityName, String temp1, String temp2,
+                       String weatherDesp, String publishTime) {
+        this.weatherCode = weatherCode;
+        this.cityName = cityName;
+        this.temp1 = temp1;
+        this.temp2 = temp2;
+        this.temp1Celsius = parseTemperature(temp1);
+        this.temp2Celsius = parseTemperature(temp2);
+        this.weatherDesp = weatherDesp;
+        this.publishTime = publishTime;
+    }
+
+    public String getWeatherCode() {
+        return weatherCode;
+    }
+
+    public String getCityName() {
+        return cityName;
+    }
+
+    /**
+     * 服务器原样返回的气温，例如“21℃”
+     */
+    public String getTemp1() {
+        return temp1;
+    }
+
+    public String getTemp2() {
+        return temp2;
+    }
+
+    /**
+     * 气温1的摄氏度，无法解析时为UNKNOWN_TEMPERATURE
+     */
+    public int getTemp1Celsius() {
+        return temp1Celsius;
+    }
+
+    public int getTemp2Celsius() {
+        return temp2Celsius;
+    }
+
+    public String getWeatherDesp() {
+        return weatherDesp;
+    }
+
+    public String getPublishTime() {
+        return publishTime;
+    }
+
+    /**
+     * 转换成Weather表中的一行
+     */
+    public Weather toWeather(String updateDate, long updatedAt) {
+        Weather weather = new Weather();
+        weather.setWeatherCode(weatherCode);
+        weather.setCityName(cityName);
+        weather.setTemp1(temp1);
+        weather.setTemp2(temp2);
+        weather.setWeatherDesp(weatherDesp);
+        weather.setPublishTime(publishTime);
+        weather.setUpdateDate(updateDate);
+        weather.setUpdatedAt(updatedAt);
+        return weather;
+    }
+
+    /**
+     * 解析“21℃”、“-3℃”或“21”这样的气温，只看开头的可选负号和数字，其余字符忽略
+     */
+    static int parseTemperature(String text) {
+        if (text == null) {
+            return UNKNOWN_TEMPERATURE;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length && text.charAt(i) == ' ') {
+            i++;
+        }
+        boolean negative = i < length && (text.charAt(i) == '-' || text.charAt(i) == '−');
+        if (negative) {
+            i++;
+        }
+        int start = i;
+        int value = 0;
+        while (i < length && i - start < 4) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            i++;
+        }
+        if (i == start) {
+            return UNKNOWN_TEMPERATURE;
+        }
+        return negative ? -value : value;
+    }
+
+    @Override
+    public String toString() {
+        return "WeatherInfo{" + cityName + "(" + weatherCode + "), " + temp1 + "~" + temp2 + ", "
+                + weatherDesp + ", " + publishTime + "}";
+    }
+}
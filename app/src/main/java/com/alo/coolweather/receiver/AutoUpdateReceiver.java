@@ -14,7 +14,8 @@ public class AutoUpdateReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        Intent intent1=new Intent(context, AutoUpdateService.class);
-        context.startActivity(intent1);
+        Intent intent1 = new Intent(context, AutoUpdateService.class);
+        intent1.putExtra(AutoUpdateService.EXTRA_SCHEDULED, true);
+        context.startService(intent1);
     }
 }
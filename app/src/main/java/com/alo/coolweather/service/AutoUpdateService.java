@@ -3,16 +3,30 @@ package com.alo.coolweather.service;
 import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.IBinder;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
 
-import com.alo.coolweather.util.HttpCallbackListener;
-import com.alo.coolweather.util.HttpUtil;
-import com.alo.coolweather.util.Utility;
+import com.alo.coolweather.model.CoolWeatherDB;
+import com.alo.coolweather.model.Weather;
+import com.alo.coolweather.receiver.AutoUpdateReceiver;
+import com.alo.coolweather.util.CurrentWeather;
+import com.alo.coolweather.util.Histogram;
+import com.alo.coolweather.util.Metrics;
+import com.alo.coolweather.util.RegionSync;
+import com.alo.coolweather.util.WeatherRefresher;
+import com.alo.coolweather.util.WorkerPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 自动启动服务
@@ -20,6 +34,27 @@ import com.alo.coolweather.util.Utility;
  */
 
 public class AutoUpdateService extends Service {
+    private static final String TAG = "AutoUpdateService";
+
+    /**
+     * 由闹钟触发的启动带上该参数。唤醒时间本来就是RefreshPolicy算出来的，不再检查数据是否还新
+     */
+    public static final String EXTRA_SCHEDULED = "scheduled";
+
+    /**
+     * 同一时间只执行一次多城市刷新，最多再排队一次
+     */
+    private static final WorkerPool updatePool = new WorkerPool("auto-update", 1, 1);
+
+    /**
+     * SharedPreferences中记录连续刷新失败次数的键
+     */
+    private static final String KEY_REFRESH_FAILURES = "refresh_failures";
+
+    private static final Histogram runLatency = Metrics.histogram("update.run_us");
+    private static final Metrics.Counter refreshedCities = Metrics.counter("update.cities_succeeded");
+    private static final Metrics.Counter failedCities = Metrics.counter("update.cities_failed");
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
@@ -29,22 +64,126 @@ public class AutoUpdateService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                updateWeather();
+        // 刷新在updatePool中异步执行，结束后根据结果安排下一次唤醒
+        updateWeather(startId, intent != null && intent.getBooleanExtra(EXTRA_SCHEDULED, false));
+        // 首次运行时顺带把全国省市县数据同步到本地，之后选择城市不再需要联网
+        RegionSync.syncInBackground(this);
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    /**
+     * 更新天气信息：一次刷新所有已保存城市的天气，结果统一写入数据库，然后安排下一次刷新。
+     * 不是闹钟触发（例如打开界面时）并且数据还新时不刷新，只安排下一次唤醒。
+     */
+    private void updateWeather(final int startId, final boolean scheduled) {
+        final Context context = getApplicationContext();
+        try {
+            updatePool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+                    RefreshPolicy policy = new RefreshPolicy(RefreshPolicy.SYSTEM_CLOCK, new Random());
+                    int failures = sp.getInt(KEY_REFRESH_FAILURES, 0);
+                    long publishedAt = -1;
+                    boolean schedule = true;
+                    try {
+                        CoolWeatherDB coolWeatherDB = CoolWeatherDB.getInstance(context);
+                        List<Weather> saved = coolWeatherDB.loadAllWeather();
+                        publishedAt = oldestPublishedAt(saved);
+                        List<String> weatherCodes = new ArrayList<>();
+                        for (Weather weather : saved) {
+                            weatherCodes.add(weather.getWeatherCode());
+                        }
+                        String weatherCode = sp.getString("weather_code", "");
+                        // 当前城市还没有保存过天气时一定要刷新
+                        boolean missing = !TextUtils.isEmpty(weatherCode) && !weatherCodes.contains(weatherCode);
+                        if (missing) {
+                            weatherCodes.add(weatherCode);
+                        }
+                        if (weatherCodes.isEmpty()) {
+                            // 还没有选择过城市，不需要唤醒
+                            schedule = false;
+                            return;
+                        }
+                        if (!scheduled && !missing && !policy.isDue(publishedAt, oldestUpdatedAt(saved))) {
+                            // 数据还新，不请求网络，只确保下一次唤醒已经安排好
+                            return;
+                        }
+                        WeatherRefresher.Stats stats = new WeatherRefresher(coolWeatherDB,
+                                WeatherRefresher.DEFAULT_CONCURRENCY).refresh(weatherCodes);
+                        Log.i(TAG, stats.toString());
+                        refreshedCities.add(stats.succeeded);
+                        failedCities.add(stats.failed);
+                        // 只拿到缓存旧内容的城市也算失败，这样服务器故障期间会按失败次数退避
+                        failures = stats.succeeded > 0 ? 0 : failures + 1;
+                        sp.edit().putInt(KEY_REFRESH_FAILURES, failures).apply();
+                        // 刷新结果可能还在写入队列中，loadWeather会先读队列；正在显示的界面通过快照收到更新
+                        CurrentWeather.publishIfCurrent(coolWeatherDB.loadWeather(weatherCode));
+                        publishedAt = oldestPublishedAt(coolWeatherDB.loadAllWeather());
+                    } catch (RuntimeException e) {
+                        // 数据库出错等异常同样按失败退避
+                        Log.e(TAG, "auto update failed", e);
+                        failures = sp.getInt(KEY_REFRESH_FAILURES, 0) + 1;
+                        sp.edit().putInt(KEY_REFRESH_FAILURES, failures).apply();
+                    } finally {
+                        // 无论成功、跳过还是出错都要安排下一次唤醒，否则闹钟链会断掉
+                        if (schedule) {
+                            scheduleNextRefresh(context, policy.nextRefreshAt(publishedAt, failures));
+                        }
+                        runLatency.recordSince(start);
+                        // 每次自动更新后输出一次全部指标，可用 adb logcat -s AutoUpdateService 查看
+                        Log.i(TAG, "metrics " + Metrics.toJson());
+                        stopSelf(startId);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 已有一次刷新在执行并且还有一次在排队，这次不需要重复刷新，下一次唤醒由它们安排
+            stopSelf(startId);
+        }
+    }
+
+    /**
+     * 所有城市中最早的发布时间，它最先需要更新；都无法解析时返回-1
+     */
+    private static long oldestPublishedAt(List<Weather> weathers) {
+        long oldest = -1;
+        for (Weather weather : weathers) {
+            long publishedAt = RefreshPolicy.publishedAtMillis(weather.getPublishTime(), weather.getUpdatedAt());
+            if (publishedAt >= 0 && (oldest < 0 || publishedAt < oldest)) {
+                oldest = publishedAt;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * 所有城市中最早的获取时间；没有城市时返回0
+     */
+    private static long oldestUpdatedAt(List<Weather> weathers) {
+        long oldest = 0;
+        for (Weather weather : weathers) {
+            if (oldest == 0 || weather.getUpdatedAt() < oldest) {
+                oldest = weather.getUpdatedAt();
             }
-        }).start();
+        }
+        return oldest;
+    }
 
-        AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
-        int anHour = 8 * 60 * 60 * 1000;
+    /**
+     * 安排下一次刷新。始终使用同一个PendingIntent，新的闹钟会替换旧的，系统中只保留一个待触发的闹钟。
+     */
+    private static void scheduleNextRefresh(Context context, long nextRefreshAt) {
+        AlarmManager am = (AlarmManager) context.getSystemService(ALARM_SERVICE);
         //使用SystemClock.elapsedRealtime()方法可
         //以获取到系统开机至今所经历时间的毫秒数，使用System.currentTimeMillis()方法可以获取
         //到1970 年1 月1 日0 点至今所经历时间的毫秒数
-        long triggerAtTime = SystemClock.elapsedRealtime() + anHour;//526
+        long delay = Math.max(0, nextRefreshAt - System.currentTimeMillis());
+        long triggerAtTime = SystemClock.elapsedRealtime() + delay;
 
-        Intent i = new Intent(this, AutoUpdateService.class);
-        PendingIntent pi = PendingIntent.getBroadcast(this, 0, i, 0);
+        Intent i = new Intent(context, AutoUpdateReceiver.class);
+        PendingIntent pi = PendingIntent.getBroadcast(context, 0, i, PendingIntent.FLAG_UPDATE_CURRENT);
         /**
          * 第一个参数是一个整型参数，用于指定AlarmManager 的
          工作类型，有四种值可选，分别是ELAPSED_REALTIME、ELAPSED_REALTIME_WAKEUP、
@@ -56,30 +195,9 @@ public class AutoUpdateService extends Service {
          第三个参数是一个PendingIntent，这里我们一般会调
          用getBroadcast()方法来获取一个能够执行广播的PendingIntent。这样当定时任务被触发的时
          候，广播接收器的onReceive()方法就可以得到执行.
+         API 19起set()是非精确闹钟，系统会把它和其他应用的闹钟合并在一起唤醒。
          */
         am.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtTime, pi);
-
-        return super.onStartCommand(intent, flags, startId);
-    }
-
-    /**
-     * 更新天气信息
-     */
-    private void updateWeather() {
-        SharedPreferences sp = (SharedPreferences) PreferenceManager.getDefaultSharedPreferences(this);
-        String weatherCode = sp.getString("weather_code", "");
-        String address = "http://www.weather.com.cn/data/cityinfo/" + weatherCode + ".html";
-        HttpUtil.sendHttpRequest(address, new HttpCallbackListener() {
-            @Override
-            public void onFinish(String response) {
-                Utility.handleWeatherResponse(AutoUpdateService.this, response);
-            }
-
-            @Override
-            public void onError(Exception e) {
-                e.printStackTrace();
-            }
-        });
     }
 
 }
@@ -0,0 +1,164 @@
+package com.alo.coolweather.service;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * 根据数据的新旧程度和上一次刷新的结果决定下一次自动刷新的时间：
+ * 刷新成功且数据较新时，在预计的下一次发布之后再唤醒；数据迟迟没有更新时，间隔随数据年龄拉长；
+ * 刷新失败时按指数退避重试。所有延迟都带随机抖动，避免多台设备同时请求。
+ * Created by alo on 2016/12/25.
+ */
+
+public class RefreshPolicy {
+    public static final long MINUTE = 60 * 1000;
+    public static final long HOUR = 60 * MINUTE;
+
+    /**
+     * 服务器大约每隔这么久发布一次新数据
+     */
+    public static final long PUBLISH_INTERVAL = 3 * HOUR;
+    /**
+     * 预计发布时间之后再等一会儿，给服务器留出更新的余量
+     */
+    public static final long PUBLISH_SLACK = 10 * MINUTE;
+    /**
+     * 两次刷新之间的最短间隔
+     */
+    public static final long MIN_INTERVAL = 30 * MINUTE;
+    /**
+     * 两次刷新之间的最长间隔，与原来固定的8小时一致
+     */
+    public static final long MAX_INTERVAL = 8 * HOUR;
+    /**
+     * 第一次失败后的重试间隔，之后每次翻倍
+     */
+    public static final long BACKOFF_BASE = 15 * MINUTE;
+    /**
+     * 失败重试的最长间隔
+     */
+    public static final long MAX_BACKOFF = 4 * HOUR;
+
+    /**
+     * 天气的发布时间为北京时间
+     */
+    private static final TimeZone PUBLISH_TIME_ZONE = TimeZone.getTimeZone("GMT+08:00");
+
+    /**
+     * 可替换的时钟，便于测试
+     */
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final Clock clock;
+    private final Random random;
+
+    public RefreshPolicy(Clock clock, Random random) {
+        this.clock = clock;
+        this.random = random;
+    }
+
+    /**
+     * 计算下一次刷新的时间（System.currentTimeMillis()时间轴）
+     *
+     * @param publishedAt         当前数据的发布时间，未知时传-1
+     * @param consecutiveFailures 连续失败的次数，上一次成功时为0
+     */
+    public long nextRefreshAt(long publishedAt, int consecutiveFailures) {
+        long now = clock.currentTimeMillis();
+        long delay;
+        if (consecutiveFailures > 0) {
+            int shift = Math.min(consecutiveFailures - 1, 16);
+            long backoff = Math.min(MAX_BACKOFF, BACKOFF_BASE << shift);
+            // 一半固定、一半随机，既保证退避效果又能错开重试
+            delay = backoff / 2 + nextLong(backoff / 2 + 1);
+        } else if (publishedAt < 0) {
+            delay = jitter(MAX_INTERVAL);
+        } else {
+            long age = Math.max(0, now - publishedAt);
+            if (age < PUBLISH_INTERVAL) {
+                delay = jitter(publishedAt + PUBLISH_INTERVAL + PUBLISH_SLACK - now);
+            } else {
+                // 超过发布周期仍未更新，数据越旧说明服务器更新越慢，间隔按年龄的一半拉长
+                delay = jitter(age / 2);
+            }
+            delay = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, delay));
+        }
+        return now + delay;
+    }
+
+    /**
+     * 现在是否需要刷新。最近MIN_INTERVAL内刚取过，或者预计的下一次发布（含余量）还没到时不需要；
+     * 任一时间未知时需要。
+     *
+     * @param publishedAt 当前数据的发布时间，未知时传-1
+     * @param fetchedAt   当前数据的获取时间，从未获取过时传0
+     */
+    public boolean isDue(long publishedAt, long fetchedAt) {
+        long now = clock.currentTimeMillis();
+        if (fetchedAt > 0 && now - fetchedAt < MIN_INTERVAL) {
+            return false;
+        }
+        return publishedAt < 0 || now >= publishedAt + PUBLISH_INTERVAL + PUBLISH_SLACK;
+    }
+
+    /**
+     * 把服务器返回的“HH:mm”格式发布时间换算为具体时刻：取不晚于fetchedAt的最近一次该时刻
+     *
+     * @return 无法解析时返回-1
+     */
+    public static long publishedAtMillis(String publishTime, long fetchedAt) {
+        if (publishTime == null) {
+            return -1;
+        }
+        int colon = publishTime.indexOf(':');
+        if (colon <= 0) {
+            return -1;
+        }
+        int hour;
+        int minute;
+        try {
+            hour = Integer.parseInt(publishTime.substring(0, colon).trim());
+            minute = Integer.parseInt(publishTime.substring(colon + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return -1;
+        }
+        Calendar calendar = Calendar.getInstance(PUBLISH_TIME_ZONE);
+        calendar.setTimeInMillis(fetchedAt);
+        calendar.set(Calendar.HOUR_OF_DAY, hour);
+        calendar.set(Calendar.MINUTE, minute);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (calendar.getTimeInMillis() > fetchedAt) {
+            calendar.add(Calendar.DAY_OF_MONTH, -1);
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * 在±10%范围内随机调整延迟
+     */
+    private long jitter(long delay) {
+        long range = delay / 10;
+        return delay - range + nextLong(2 * range + 1);
+    }
+
+    private long nextLong(long bound) {
+        if (bound <= 1) {
+            return 0;
+        }
+        return (long) (random.nextDouble() * bound);
+    }
+}
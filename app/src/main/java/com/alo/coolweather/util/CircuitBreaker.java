@@ -0,0 +1,58 @@
+package com.alo.coolweather.util;
+
+/**
+ * 单个主机的熔断器。连续失败达到阈值后打开，期间的请求直接拒绝；
+ * 打开一段时间后进入半开状态，只放行一个试探请求，成功则关闭，失败则重新打开。
+ * 时间由调用方传入（毫秒，单调递增即可），便于测试。
+ * Created by alo on 2017/1/4.
+ */
+
+public class CircuitBreaker {
+    public static final int CLOSED = 0;
+    public static final int OPEN = 1;
+    public static final int HALF_OPEN = 2;
+
+    private int state = CLOSED;
+    private int consecutiveFailures;
+    /**
+     * 打开状态的结束时间；半开时是试探请求的过期时间，试探请求迟迟没有结果时允许再试一次
+     */
+    private long until;
+
+    /**
+     * 是否放行一次请求。放行后调用方必须调用recordSuccess或recordFailure。
+     */
+    public synchronized boolean allowRequest(long now, HttpPolicy policy) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+            case HALF_OPEN:
+                if (now < until) {
+                    return false;
+                }
+                state = HALF_OPEN;
+                until = now + policy.openMillis;
+                return true;
+            default:
+                throw new IllegalStateException("state " + state);
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        state = CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure(long now, HttpPolicy policy) {
+        consecutiveFailures++;
+        if (state == HALF_OPEN || consecutiveFailures >= policy.failureThreshold) {
+            state = OPEN;
+            until = now + policy.openMillis;
+        }
+    }
+
+    public synchronized int getState() {
+        return state;
+    }
+}
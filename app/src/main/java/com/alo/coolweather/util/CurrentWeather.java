@@ -0,0 +1,127 @@
+package com.alo.coolweather.util;
+
+import com.alo.coolweather.model.Weather;
+import com.alo.coolweather.model.WeatherInfo;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 进程内当前城市的天气快照。每次得到新数据时整体替换为新的不可变实例，读取不加锁；
+ * 界面注册监听后，无论是自己发起的查询还是AutoUpdateService的后台刷新，都能收到更新。
+ * Created by alo on 2017/1/3.
+ */
+
+public class CurrentWeather {
+    private static final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private static final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private CurrentWeather() {
+    }
+
+    /**
+     * 快照发生变化时回调，在发布的线程中调用，需要更新界面时自行切换到主线程
+     */
+    public interface Listener {
+        void onWeatherChanged(Snapshot snapshot);
+    }
+
+    /**
+     * 某一时刻的当前天气，不可修改
+     */
+    public static final class Snapshot {
+        private final WeatherInfo weatherInfo;
+        private final String updateDate;
+        private final long updatedAt;
+
+        public Snapshot(WeatherInfo weatherInfo, String updateDate, long updatedAt) {
+            this.weatherInfo = weatherInfo;
+            this.updateDate = updateDate;
+            this.updatedAt = updatedAt;
+        }
+
+        static Snapshot of(Weather weather) {
+            return new Snapshot(new WeatherInfo(weather.getWeatherCode(), weather.getCityName(),
+                    weather.getTemp1(), weather.getTemp2(), weather.getWeatherDesp(), weather.getPublishTime()),
+                    weather.getUpdateDate(), weather.getUpdatedAt());
+        }
+
+        public WeatherInfo getWeatherInfo() {
+            return weatherInfo;
+        }
+
+        public String getWeatherCode() {
+            return weatherInfo.getWeatherCode();
+        }
+
+        /**
+         * 获取数据的日期，例如“2016年12月20日”
+         */
+        public String getUpdateDate() {
+            return updateDate;
+        }
+
+        public long getUpdatedAt() {
+            return updatedAt;
+        }
+    }
+
+    /**
+     * 当前快照，还没有发布过时返回null
+     */
+    public static Snapshot get() {
+        return current.get();
+    }
+
+    /**
+     * 发布天气作为当前城市的快照并通知监听者。同一城市比现有快照旧的数据会被忽略，
+     * 避免晚到的旧结果覆盖新结果；换了城市时总是替换。返回是否发布成功。
+     */
+    public static boolean publish(Weather weather) {
+        return publish(weather, false);
+    }
+
+    /**
+     * 还没有快照或者当前快照就是该城市时才发布，用于后台刷新，避免刷新期间用户换了城市又被改回去
+     */
+    public static boolean publishIfCurrent(Weather weather) {
+        return publish(weather, true);
+    }
+
+    private static boolean publish(Weather weather, boolean sameCityOnly) {
+        if (weather == null || weather.getWeatherCode() == null) {
+            return false;
+        }
+        Snapshot snapshot = Snapshot.of(weather);
+        Snapshot previous;
+        do {
+            previous = current.get();
+            if (previous != null) {
+                boolean sameCity = previous.getWeatherCode().equals(snapshot.getWeatherCode());
+                if ((sameCityOnly && !sameCity) || (sameCity && previous.updatedAt > snapshot.updatedAt)) {
+                    return false;
+                }
+            }
+        } while (!current.compareAndSet(previous, snapshot));
+        for (Listener listener : listeners) {
+            listener.onWeatherChanged(snapshot);
+        }
+        return true;
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 清空快照和监听者，仅供测试使用
+     */
+    static void reset() {
+        current.set(null);
+        listeners.clear();
+    }
+}
@@ -0,0 +1,267 @@
+package com.alo.coolweather.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 磁盘上的HTTP响应缓存：保存响应体以及ETag/Last-Modified，供HttpUtil发起条件请求，
+ * 服务器返回304时直接使用缓存内容。按最近使用顺序淘汰，总大小不超过maxSize。
+ * 每个地址对应目录下的一个文件，文件名是地址的MD5。
+ * Created by alo on 2016/12/23.
+ */
+
+public class HttpCache {
+    private static final int FORMAT_VERSION = 1;
+
+    private final File directory;
+    private final long maxSize;
+    /**
+     * 文件名 -> 文件大小，按访问顺序排列，最久未使用的在最前面
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private boolean initialized;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong revalidateCount = new AtomicLong();
+
+    public HttpCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 缓存的一条响应
+     */
+    public static class Entry {
+        public final String body;
+        public final String eTag;
+        public final String lastModified;
+
+        public Entry(String body, String eTag, String lastModified) {
+            this.body = body;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * 读取地址对应的缓存，没有或文件损坏时返回null
+     */
+    public synchronized Entry get(String url) {
+        init();
+        String key = keyOf(url);
+        // 用get而不是containsKey，才会更新访问顺序
+        if (entries.get(key) == null) {
+            return null;
+        }
+        File file = new File(directory, key);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION || !url.equals(in.readUTF())) {
+                remove(key);
+                return null;
+            }
+            String eTag = emptyToNull(in.readUTF());
+            String lastModified = emptyToNull(in.readUTF());
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(new String(body, "UTF-8"), eTag, lastModified);
+        } catch (IOException e) {
+            remove(key);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 保存一条响应，必要时淘汰最久未使用的缓存
+     */
+    public synchronized void put(String url, Entry entry) {
+        init();
+        String key = keyOf(url);
+        File file = new File(directory, key);
+        File tmp = new File(directory, key + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            byte[] body = entry.body.getBytes("UTF-8");
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(url);
+            out.writeUTF(entry.eTag == null ? "" : entry.eTag);
+            out.writeUTF(entry.lastModified == null ? "" : entry.lastModified);
+            out.writeInt(body.length);
+            out.write(body);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeQuietly(out);
+            tmp.delete();
+            return;
+        }
+        Long old = entries.put(key, file.length());
+        size += file.length() - (old == null ? 0 : old);
+        trimToSize();
+    }
+
+    /**
+     * 清空所有缓存
+     */
+    public synchronized void clear() {
+        init();
+        for (String key : entries.keySet()) {
+            new File(directory, key).delete();
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    public synchronized long getSize() {
+        init();
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 服务器返回304、直接使用缓存内容的次数
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * 没有可用缓存、发起完整请求的次数
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 携带If-None-Match/If-Modified-Since发起条件请求的次数
+     */
+    public long getRevalidateCount() {
+        return revalidateCount.get();
+    }
+
+    void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    void recordRevalidate() {
+        revalidateCount.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "HttpCache{hit=" + hitCount.get() + ", miss=" + missCount.get()
+                + ", revalidate=" + revalidateCount.get() + "}";
+    }
+
+    /**
+     * 首次使用时扫描目录，按文件修改时间恢复访问顺序。放在这里而不是构造方法中，
+     * 保证磁盘操作只发生在网络线程上。
+     */
+    private void init() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+            } else {
+                entries.put(file.getName(), file.length());
+                size += file.length();
+            }
+        }
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(directory, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Long old = entries.remove(key);
+        if (old != null) {
+            size -= old;
+        }
+        new File(directory, key).delete();
+    }
+
+    private static String keyOf(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.length() == 0 ? null : value;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
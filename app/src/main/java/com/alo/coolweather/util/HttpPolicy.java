@@ -0,0 +1,80 @@
+package com.alo.coolweather.util;
+
+/**
+ * HttpUtil的超时、重试和熔断参数。实例不可变，with方法返回修改了一组参数的新实例，
+ * 通过HttpUtil.setPolicy整体替换。
+ * Created by alo on 2017/1/4.
+ */
+
+public class HttpPolicy {
+    /**
+     * 默认参数：单次连接和读取各5秒（与原来一致），最多请求3次，一次调用总共不超过15秒；
+     * 同一主机连续5次失败后熔断30秒
+     */
+    public static final HttpPolicy DEFAULT = new HttpPolicy(5000, 5000, 15000, 3, 250, 2000, 5, 30000);
+
+    /**
+     * 单次请求的连接超时（毫秒）
+     */
+    public final int connectTimeoutMillis;
+    /**
+     * 单次请求的读取超时（毫秒）
+     */
+    public final int readTimeoutMillis;
+    /**
+     * 一次调用（包括所有重试和等待）的总时限（毫秒），每次请求的超时也不会超过剩余时间
+     */
+    public final long deadlineMillis;
+    /**
+     * 最多请求的次数，1表示不重试
+     */
+    public final int maxAttempts;
+    /**
+     * 第一次重试前等待时间的上限，之后每次翻倍，实际等待在0到上限之间随机
+     */
+    public final long backoffBaseMillis;
+    public final long maxBackoffMillis;
+    /**
+     * 同一主机连续失败多少次后熔断
+     */
+    public final int failureThreshold;
+    /**
+     * 熔断持续时间，之后放行一次试探请求
+     */
+    public final long openMillis;
+
+    private HttpPolicy(int connectTimeoutMillis, int readTimeoutMillis, long deadlineMillis, int maxAttempts,
+                       long backoffBaseMillis, long maxBackoffMillis, int failureThreshold, long openMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.deadlineMillis = deadlineMillis;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    public HttpPolicy withTimeouts(int connectTimeoutMillis, int readTimeoutMillis, long deadlineMillis) {
+        return new HttpPolicy(connectTimeoutMillis, readTimeoutMillis, deadlineMillis, maxAttempts,
+                backoffBaseMillis, maxBackoffMillis, failureThreshold, openMillis);
+    }
+
+    public HttpPolicy withRetries(int maxAttempts, long backoffBaseMillis, long maxBackoffMillis) {
+        return new HttpPolicy(connectTimeoutMillis, readTimeoutMillis, deadlineMillis, maxAttempts,
+                backoffBaseMillis, maxBackoffMillis, failureThreshold, openMillis);
+    }
+
+    public HttpPolicy withCircuitBreaker(int failureThreshold, long openMillis) {
+        return new HttpPolicy(connectTimeoutMillis, readTimeoutMillis, deadlineMillis, maxAttempts,
+                backoffBaseMillis, maxBackoffMillis, failureThreshold, openMillis);
+    }
+
+    /**
+     * 第attempt次请求失败后、下一次请求前的等待上限（attempt从1开始）
+     */
+    long backoffCeiling(int attempt) {
+        int shift = Math.min(attempt - 1, 20);
+        return Math.min(maxBackoffMillis, backoffBaseMillis << shift);
+    }
+}
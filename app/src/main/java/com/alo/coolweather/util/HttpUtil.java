@@ -1,63 +1,541 @@
 package com.alo.coolweather.util;
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * 获取网络数据
+ * 获取网络数据。
+ * <p>
+ * 每次调用按HttpPolicy执行：网络错误、超时和5xx/429会在总时限内带随机退避重试（只发GET，重复请求没有副作用）；
+ * 同一主机连续失败时熔断，熔断期间不再访问网络，立即失败。
+ * 熔断或重试后仍失败时，有缓存的地址以StaleResponseException交出缓存内容，由调用方决定是否使用旧数据。
  * Created by alo on 2016/12/15.
  */
 
 public class HttpUtil {
-    public static void sendHttpRequest(final String address, final HttpCallbackListener listener) {
-        new Thread(new Runnable() {
+    /**
+     * 同时进行的网络请求数
+     */
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+    /**
+     * 等待执行的请求上限，超出后新请求直接回调onError
+     */
+    private static final int MAX_QUEUED_REQUESTS = 64;
+
+    private static final WorkerPool pool = new WorkerPool("http", MAX_CONCURRENT_REQUESTS, MAX_QUEUED_REQUESTS);
+
+    private static volatile int maxBodyBytes = ResponseBodyReader.DEFAULT_MAX_BODY_BYTES;
+
+    private static volatile HttpCache cache;
+
+    private static volatile HttpPolicy policy = HttpPolicy.DEFAULT;
+
+    /**
+     * 主机（含端口） -> 熔断器
+     */
+    private static final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private static final Random random = new Random();
+
+    /**
+     * 正在进行的请求，按地址去重
+     */
+    private static final Map<String, Call> inFlight = new HashMap<>();
+    private static final AtomicLong coalescedCount = new AtomicLong();
+
+    private static final Histogram fetchLatency = Metrics.histogram("http.fetch_us");
+    private static final Metrics.Counter requestCount = Metrics.counter("http.requests");
+    private static final Metrics.Counter errorCount = Metrics.counter("http.errors");
+    private static final Metrics.Counter notModifiedCount = Metrics.counter("http.not_modified");
+    /**
+     * 实际从网络读取的字节数（压缩后）
+     */
+    private static final Metrics.Counter bytesRead = Metrics.counter("http.bytes_read");
+    private static final Metrics.Counter retryCount = Metrics.counter("http.retries");
+    /**
+     * 因熔断没有访问网络的调用次数
+     */
+    private static final Metrics.Counter rejectedCount = Metrics.counter("http.circuit_rejected");
+    /**
+     * 因熔断或失败而交出缓存内容的次数
+     */
+    private static final Metrics.Counter staleServedCount = Metrics.counter("http.stale_served");
+
+    static {
+        Metrics.gauge("http.coalesced", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return coalescedCount.get();
+            }
+        });
+        Metrics.gauge("http.pool_queued", new Metrics.Gauge() {
             @Override
-            public void run() {
-                HttpURLConnection connection = null;
-                InputStream inputStream = null;
-                BufferedReader bufferedReader = null;
+            public long getValue() {
+                return pool.getStats().queuedCount;
+            }
+        });
+    }
+
+    /**
+     * 安装响应缓存，之后的请求都会带上条件请求头，304时直接使用缓存内容；传null关闭缓存
+     */
+    public static void installCache(HttpCache httpCache) {
+        cache = httpCache;
+    }
+
+    public static HttpCache getCache() {
+        return cache;
+    }
+
+    /**
+     * 替换超时、重试和熔断参数，对之后开始的调用生效
+     */
+    public static void setPolicy(HttpPolicy httpPolicy) {
+        policy = httpPolicy;
+    }
+
+    public static HttpPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * 主机的熔断状态（CircuitBreaker.CLOSED/OPEN/HALF_OPEN），host包括端口，例如 www.weather.com.cn
+     */
+    public static int getCircuitState(String host) {
+        CircuitBreaker breaker = breakers.get(host);
+        return breaker == null ? CircuitBreaker.CLOSED : breaker.getState();
+    }
+
+    /**
+     * 清除所有熔断状态，供测试使用
+     */
+    static void resetCircuitBreakers() {
+        breakers.clear();
+    }
+
+    /**
+     * 设置单个响应体（解压后）的最大字节数，超出时回调onError
+     */
+    public static void setMaxBodyBytes(int maxBytes) {
+        maxBodyBytes = maxBytes;
+    }
+
+    /**
+     * 网络线程池的状态，用于确认高频请求下线程数保持稳定
+     */
+    public static WorkerPool.Stats getPoolStats() {
+        return pool.getStats();
+    }
+
+    /**
+     * 关闭网络线程池，已提交的请求会继续执行完，之后的请求都会回调onError
+     */
+    public static void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * 因同一地址已有请求在进行而被合并、没有单独发起网络请求的次数
+     */
+    public static long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * 异步执行GET请求。同一地址已有请求在进行时不会再发起新的连接，
+     * 所有调用方共享同一次请求的结果（同一个String实例）。
+     */
+    public static void sendHttpRequest(final String address, final HttpCallbackListener listener) {
+        final Call call;
+        synchronized (inFlight) {
+            Call existing = inFlight.get(address);
+            if (existing != null) {
+                existing.listeners.add(listener);
+                coalescedCount.incrementAndGet();
+                return;
+            }
+            call = new Call();
+            call.listeners.add(listener);
+            inFlight.put(address, call);
+        }
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    execute(address, call);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            complete(address, call, null, e);
+        }
+    }
+
+    /**
+     * 在调用线程上同步执行GET请求并返回响应体，只能在后台线程调用。
+     * 同一地址已有请求在进行时直接等待它的结果。请求失败但有缓存时抛出StaleResponseException。
+     */
+    public static String get(String address) throws IOException {
+        Call call;
+        boolean leader = false;
+        synchronized (inFlight) {
+            call = inFlight.get(address);
+            if (call == null) {
+                call = new Call();
+                inFlight.put(address, call);
+                leader = true;
+            } else {
+                coalescedCount.incrementAndGet();
+            }
+        }
+        if (leader) {
+            execute(address, call);
+        }
+        return call.await();
+    }
+
+    /**
+     * 与get相同，但请求失败时直接返回缓存中的旧内容，用于省市县列表这类很少变化、旧数据也可以使用的地址
+     */
+    public static String getAllowingStale(String address) throws IOException {
+        try {
+            return get(address);
+        } catch (StaleResponseException e) {
+            return e.body;
+        }
+    }
+
+    /**
+     * 执行请求并把结果交给所有等待者
+     */
+    private static void execute(String address, Call call) {
+        long start = System.nanoTime();
+        requestCount.increment();
+        try {
+            String response = fetchWithPolicy(address);
+            fetchLatency.recordSince(start);
+            complete(address, call, response, null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            errorCount.increment();
+            complete(address, call, null, e);
+        }
+    }
+
+    private static void complete(String address, Call call, String response, Exception error) {
+        List<HttpCallbackListener> listeners;
+        synchronized (inFlight) {
+            if (inFlight.get(address) == call) {
+                inFlight.remove(address);
+            }
+            call.response = response;
+            call.error = error;
+            listeners = new ArrayList<>(call.listeners);
+        }
+        call.done.countDown();
+        for (HttpCallbackListener listener : listeners) {
+            if (listener == null) {
+                continue;
+            }
+            if (error != null) {
+                listener.onError(error);
+                continue;
+            }
+            try {
+                listener.onFinish(response);
+            } catch (Exception e) {
+                e.printStackTrace();
+                listener.onError(e);
+            }
+        }
+    }
+
+    /**
+     * 一次正在进行的请求，以及等待它结果的回调
+     */
+    private static class Call {
+        final List<HttpCallbackListener> listeners = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        String response;
+        Exception error;
+
+        String await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + this);
+            }
+            return result();
+        }
+
+        String result() throws IOException {
+            synchronized (inFlight) {
+                if (error instanceof IOException) {
+                    throw (IOException) error;
+                }
+                if (error != null) {
+                    throw new IOException(error);
+                }
+                return response;
+            }
+        }
+    }
+
+    /**
+     * 服务器返回了错误状态码
+     */
+    public static class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int code;
+
+        public StatusException(int code, String address) {
+            super("HTTP " + code + " for " + address);
+            this.code = code;
+        }
+    }
+
+    /**
+     * 主机处于熔断状态，并且没有可用的缓存
+     */
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CircuitOpenException(String host) {
+            super("Circuit open for " + host);
+        }
+    }
+
+    /**
+     * 请求失败（包括熔断），但缓存中有该地址以前的响应。body是缓存内容，可能已经过时，
+     * 调用方不能把它当作刚刚取到的数据。
+     */
+    public static class StaleResponseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final String body;
+
+        public StaleResponseException(String address, String body, IOException cause) {
+            super("Serving stale response for " + address, cause);
+            this.body = body;
+        }
+    }
+
+    /**
+     * 按当前策略执行一次调用：熔断检查、带退避的重试和总时限
+     */
+    private static String fetchWithPolicy(String address) throws IOException {
+        HttpPolicy httpPolicy = policy;
+        String host = hostOf(address);
+        CircuitBreaker breaker = breakers.get(host);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker();
+            breaker = breakers.putIfAbsent(host, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        long deadline = now() + httpPolicy.deadlineMillis;
+        IOException lastError = null;
+        for (int attempt = 1; attempt <= httpPolicy.maxAttempts; attempt++) {
+            long remaining = deadline - now();
+            if (remaining <= 0) {
+                break;
+            }
+            if (!breaker.allowRequest(now(), httpPolicy)) {
+                rejectedCount.increment();
+                throw staleOr(address, lastError != null ? lastError : new CircuitOpenException(host));
+            }
+            try {
+                String response = fetch(address, (int) Math.min(httpPolicy.connectTimeoutMillis, remaining),
+                        (int) Math.min(httpPolicy.readTimeoutMillis, remaining));
+                breaker.recordSuccess();
+                return response;
+            } catch (IOException e) {
+                if (!isRetryable(e)) {
+                    // 服务器正常响应了（例如404），或者是本地的问题，与主机是否健康无关
+                    breaker.recordSuccess();
+                    throw e;
+                }
+                breaker.recordFailure(now(), httpPolicy);
+                lastError = e;
+            }
+            if (attempt < httpPolicy.maxAttempts) {
+                long delay = (long) (random.nextDouble() * httpPolicy.backoffCeiling(attempt));
+                if (now() + delay >= deadline) {
+                    break;
+                }
+                retryCount.increment();
+                sleep(delay);
+            }
+        }
+        if (lastError == null) {
+            lastError = new SocketTimeoutException("Deadline of " + httpPolicy.deadlineMillis + "ms exceeded for "
+                    + address);
+        }
+        throw staleOr(address, lastError);
+    }
+
+    /**
+     * 网络错误、超时、5xx和429可以重试；4xx、响应体过大、地址格式错误和线程被中断不重试
+     */
+    static boolean isRetryable(IOException e) {
+        if (e instanceof StatusException) {
+            int code = ((StatusException) e).code;
+            return code >= 500 || code == 429;
+        }
+        if (e instanceof InterruptedIOException) {
+            return e instanceof SocketTimeoutException;
+        }
+        return !(e instanceof ResponseBodyReader.BodyTooLargeException || e instanceof MalformedURLException);
+    }
+
+    /**
+     * 有缓存时把error包装成带缓存内容的StaleResponseException，没有时原样返回
+     */
+    private static IOException staleOr(String address, IOException error) {
+        HttpCache httpCache = cache;
+        HttpCache.Entry entry = httpCache == null ? null : httpCache.get(address);
+        if (entry == null) {
+            return error;
+        }
+        staleServedCount.increment();
+        return new StaleResponseException(address, entry.body, error);
+    }
+
+    private static String hostOf(String address) {
+        try {
+            return new URL(address).getAuthority();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+
+    /**
+     * 实际发起网络请求，处理条件请求与响应体读取
+     */
+    private static String fetch(String address, int connectTimeout, int readTimeout) throws IOException {
+        HttpURLConnection connection = null;
+        InputStream inputStream = null;
+        try {
+            URL url = new URL(address);
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("GET");
+            connection.setReadTimeout(readTimeout);
+            connection.setConnectTimeout(connectTimeout);
+            // 设定传送的内容类型是可序列化的java对象    (如果不设此项,在传送序列化对象时,当WEB服务默认的不是这种类型时可能抛java.io.EOFException)
+            connection.setRequestProperty("Content-type", "application/x-java-serialized-object");
+            // 显式声明接受gzip后，解压由ResponseBodyReader负责
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            HttpCache httpCache = cache;
+            HttpCache.Entry cached = httpCache == null ? null : httpCache.get(address);
+            if (cached != null) {
+                if (cached.eTag != null) {
+                    connection.setRequestProperty("If-None-Match", cached.eTag);
+                }
+                if (cached.lastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+                }
+                httpCache.recordRevalidate();
+            } else if (httpCache != null) {
+                httpCache.recordMiss();
+            }
+            connection.connect();
+
+            if (cached != null && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                httpCache.recordHit();
+                notModifiedCount.increment();
+                return cached.body;
+            }
+            int code = connection.getResponseCode();
+            if (code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new StatusException(code, address);
+            }
+            inputStream = new CountingInputStream(connection.getInputStream());
+            String response = ResponseBodyReader.read(inputStream, connection.getContentType(),
+                    connection.getContentEncoding(), maxBodyBytes);
+            String eTag = connection.getHeaderField("ETag");
+            String lastModified = connection.getHeaderField("Last-Modified");
+            // 没有校验字段的响应无法做条件请求，缓存下来也用不上
+            if (httpCache != null && (eTag != null || lastModified != null)) {
+                httpCache.put(address, new HttpCache.Entry(response, eTag, lastModified));
+            }
+            return response;
+        } finally {
+            if (inputStream != null) {
+                bytesRead.add(((CountingInputStream) inputStream).count);
                 try {
-                    URL url = new URL(address);
-                    connection = (HttpURLConnection) url.openConnection();
-                    connection.setRequestMethod("GET");
-                    connection.setReadTimeout(5000);
-                    connection.setConnectTimeout(5000);
-                    // 设定传送的内容类型是可序列化的java对象    (如果不设此项,在传送序列化对象时,当WEB服务默认的不是这种类型时可能抛java.io.EOFException)
-                    connection.setRequestProperty("Content-type", "application/x-java-serialized-object");
-                    connection.connect();
-
-                    inputStream = connection.getInputStream();
-                    bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-                    StringBuilder response = new StringBuilder();
-                    
-                    //报异常java.io.EOFException
-//                    String line;
-//                    while ((line = bufferedReader.readLine()) != null) {
-//                        response.append(line);
-//                    }
-                    byte[]b=new byte[1024];
-                    int len=0;
-                    if ((len = inputStream.read(b)) != -1) {
-                        response.append(new String(b,0,len));
-                    }
-
-                    if (listener != null) {
-                        listener.onFinish(response.toString());
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    if (listener != null) {
-                        listener.onError(e);
-                    }
-                } finally {
-                    if (connection != null) {
-                        connection.disconnect();
-                    }
-                }
-            }
-        }).start();
+                    inputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 统计从连接中读取的字节数
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
     }
 }
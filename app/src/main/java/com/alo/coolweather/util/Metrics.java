@@ -0,0 +1,139 @@
+package com.alo.coolweather.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内的指标注册表：计数器、仪表和延迟直方图。按名称取得的实例在进程内唯一，
+ * 热路径上应把实例保存在静态字段中，避免每次查表。toJson输出当前快照，可写入日志或上报。
+ * <p>
+ * 命名约定：按模块加点分隔，时间类直方图以_us结尾（微秒）。
+ * Created by alo on 2016/12/31.
+ */
+
+public class Metrics {
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * 直方图快照中输出的分位数
+     */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private Metrics() {
+    }
+
+    /**
+     * 单调递增的计数器
+     */
+    public static class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * 读取时才计算的值，例如队列长度
+     */
+    public interface Gauge {
+        long getValue();
+    }
+
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    public static Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * 注册仪表，同名的会被替换
+     */
+    public static void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * 所有指标的当前值，按名称排序：
+     * {"counters":{..},"gauges":{..},"histograms":{"name":{"count":..,"mean":..,"max":..,"p50":..}}}
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            first = appendName(json, entry.getKey(), first);
+            json.append(entry.getValue().get());
+        }
+        json.append("},\"gauges\":{");
+        first = true;
+        for (Map.Entry<String, Gauge> entry : new TreeMap<>(gauges).entrySet()) {
+            first = appendName(json, entry.getKey(), first);
+            json.append(entry.getValue().getValue());
+        }
+        json.append("},\"histograms\":{");
+        first = true;
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            first = appendName(json, entry.getKey(), first);
+            Histogram.Snapshot snapshot = entry.getValue().snapshot();
+            json.append("{\"count\":").append(snapshot.count)
+                    .append(",\"mean\":").append(Math.round(snapshot.getMean()))
+                    .append(",\"max\":").append(snapshot.max);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                json.append(",\"").append(QUANTILE_NAMES[i]).append("\":")
+                        .append(snapshot.getValueAtQuantile(QUANTILES[i]));
+            }
+            json.append('}');
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    private static boolean appendName(StringBuilder json, String name, boolean first) {
+        if (!first) {
+            json.append(',');
+        }
+        json.append('"');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\');
+            }
+            json.append(c);
+        }
+        json.append("\":");
+        return false;
+    }
+}
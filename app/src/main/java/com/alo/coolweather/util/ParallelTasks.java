@@ -0,0 +1,83 @@
+package com.alo.coolweather.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 以固定并发数执行一组相互独立的任务并等待全部结束，用于批量下载省市县和多城市天气。
+ * Created by alo on 2016/12/24.
+ */
+
+public class ParallelTasks {
+
+    /**
+     * 第index个任务，抛出异常即视为失败
+     */
+    public interface Task {
+        void run(int index) throws Exception;
+    }
+
+    /**
+     * 每完成一个任务回调一次，在工作线程中调用
+     */
+    public interface ProgressListener {
+        void onProgress(int done, int total);
+    }
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * 用最多parallelism个线程执行total个任务，全部结束后返回失败的任务数。
+     * 调用线程被中断时仍会等正在执行的任务结束，返回前恢复中断标记。
+     */
+    public static int runAll(String name, int parallelism, final int total, final Task task,
+                             final ProgressListener listener) {
+        if (total == 0) {
+            return 0;
+        }
+        final CountDownLatch latch = new CountDownLatch(total);
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        WorkerPool pool = new WorkerPool(name, Math.max(1, Math.min(parallelism, total)), total);
+        for (int i = 0; i < total; i++) {
+            final int index = i;
+            try {
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run(index);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                            failures.incrementAndGet();
+                        } finally {
+                            if (listener != null) {
+                                listener.onProgress(done.incrementAndGet(), total);
+                            }
+                            latch.countDown();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                failures.incrementAndGet();
+                latch.countDown();
+            }
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        pool.shutdown();
+        return failures.get();
+    }
+}
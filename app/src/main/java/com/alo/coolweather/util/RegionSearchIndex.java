@@ -0,0 +1,285 @@
+package com.alo.coolweather.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 省市县名称和代号的前缀搜索索引。所有检索键排序后放在数组中，查询时二分找到前缀的起点再顺序取前K个，
+ * 不分配中间对象。实例不可变，入库后用plus生成包含新数据的新实例，可以被多个线程同时读取。
+ * Created by alo on 2016/12/29.
+ */
+
+public class RegionSearchIndex {
+    public static final int LEVEL_PROVINCE = 0;
+    public static final int LEVEL_CITY = 1;
+    public static final int LEVEL_COUNTY = 2;
+
+    /**
+     * 为名称提供额外的检索键，例如拼音全拼或首字母
+     */
+    public interface KeyProvider {
+        String[] keysFor(String name);
+    }
+
+    /**
+     * 一个省、市或县
+     */
+    public static class Region {
+        private final int level;
+        private final int id;
+        private final int parentId;
+        private final String name;
+        private final String code;
+        private String parentName;
+
+        public Region(int level, int id, int parentId, String name, String code) {
+            this.level = level;
+            this.id = id;
+            this.parentId = parentId;
+            this.name = name == null ? "" : name;
+            this.code = code == null ? "" : code;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getParentId() {
+            return parentId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        /**
+         * 上一级的名称，用于区分重名的地区，省级为null
+         */
+        public String getParentName() {
+            return parentName;
+        }
+
+        @Override
+        public String toString() {
+            return parentName == null ? name : name + " - " + parentName;
+        }
+    }
+
+    /**
+     * 检索键升序排列，keyRegions[i]是keys[i]对应的地区
+     */
+    private final String[] keys;
+    private final Region[] keyRegions;
+    /**
+     * 按 level << 32 | id 升序排列，用于去重和查找上一级
+     */
+    private final long[] regionIds;
+    private final Region[] regions;
+    private final KeyProvider keyProvider;
+
+    private RegionSearchIndex(String[] keys, Region[] keyRegions, long[] regionIds, Region[] regions,
+                              KeyProvider keyProvider) {
+        this.keys = keys;
+        this.keyRegions = keyRegions;
+        this.regionIds = regionIds;
+        this.regions = regions;
+        this.keyProvider = keyProvider;
+    }
+
+    /**
+     * 用一批地区建立索引，keyProvider可以为null
+     */
+    public static RegionSearchIndex build(List<Region> regions, KeyProvider keyProvider) {
+        return new RegionSearchIndex(new String[0], new Region[0], new long[0], new Region[0], keyProvider)
+                .plus(regions);
+    }
+
+    public int size() {
+        return regions.length;
+    }
+
+    /**
+     * 返回包含新增地区的索引，已存在的地区（同级同id）忽略。
+     * 只对新增部分排序，再与已有数组归并，开销与已有数据量成线性关系。
+     */
+    public RegionSearchIndex plus(List<Region> added) {
+        List<Region> fresh = new ArrayList<>(added.size());
+        for (Region region : added) {
+            if (indexOf(region.level, region.id) < 0) {
+                fresh.add(region);
+            }
+        }
+        if (fresh.isEmpty()) {
+            return this;
+        }
+        Collections.sort(fresh, new Comparator<Region>() {
+            @Override
+            public int compare(Region a, Region b) {
+                long x = idOf(a.level, a.id);
+                long y = idOf(b.level, b.id);
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        // 同一批中重复的只保留第一个
+        for (int k = fresh.size() - 1; k > 0; k--) {
+            if (idOf(fresh.get(k).level, fresh.get(k).id) == idOf(fresh.get(k - 1).level, fresh.get(k - 1).id)) {
+                fresh.remove(k);
+            }
+        }
+
+        long[] mergedIds = new long[regionIds.length + fresh.size()];
+        Region[] mergedRegions = new Region[mergedIds.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < regionIds.length || j < fresh.size()) {
+            Region region;
+            if (j >= fresh.size() || (i < regionIds.length
+                    && regionIds[i] < idOf(fresh.get(j).level, fresh.get(j).id))) {
+                region = regions[i++];
+            } else {
+                region = fresh.get(j++);
+            }
+            mergedIds[n] = idOf(region.level, region.id);
+            mergedRegions[n++] = region;
+        }
+        RegionSearchIndex merged = new RegionSearchIndex(keys, keyRegions, mergedIds, mergedRegions, keyProvider);
+
+        // 新增地区的检索键，同时补上上一级名称
+        List<KeyEntry> newKeys = new ArrayList<>(fresh.size() * 2);
+        for (Region region : fresh) {
+            if (region.parentName == null && region.level > LEVEL_PROVINCE) {
+                Region parent = merged.find(region.level - 1, region.parentId);
+                region.parentName = parent == null ? null : parent.name;
+            }
+            addKey(newKeys, region.name, region);
+            if (!region.code.equals(region.name)) {
+                addKey(newKeys, region.code, region);
+            }
+            if (keyProvider != null) {
+                String[] extra = keyProvider.keysFor(region.name);
+                if (extra != null) {
+                    for (String key : extra) {
+                        addKey(newKeys, key, region);
+                    }
+                }
+            }
+        }
+        Collections.sort(newKeys);
+
+        String[] mergedKeys = new String[keys.length + newKeys.size()];
+        Region[] mergedKeyRegions = new Region[mergedKeys.length];
+        i = 0;
+        j = 0;
+        n = 0;
+        while (i < keys.length || j < newKeys.size()) {
+            if (j >= newKeys.size() || (i < keys.length && keys[i].compareTo(newKeys.get(j).key) <= 0)) {
+                mergedKeys[n] = keys[i];
+                mergedKeyRegions[n++] = keyRegions[i++];
+            } else {
+                KeyEntry entry = newKeys.get(j++);
+                mergedKeys[n] = entry.key;
+                mergedKeyRegions[n++] = entry.region;
+            }
+        }
+        return new RegionSearchIndex(mergedKeys, mergedKeyRegions, mergedIds, mergedRegions, keyProvider);
+    }
+
+    /**
+     * 按同级同id查找地区，找不到返回null
+     */
+    public Region find(int level, int id) {
+        int index = indexOf(level, id);
+        return index < 0 ? null : regions[index];
+    }
+
+    /**
+     * 返回名称、代号或额外检索键以prefix开头的前limit个地区，按检索键的字典序排列，同一地区只出现一次
+     */
+    public List<Region> search(String prefix, int limit) {
+        String normalized = normalize(prefix);
+        if (normalized.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<Region> result = new ArrayList<>(Math.min(limit, 16));
+        for (int i = lowerBound(normalized); i < keys.length && keys[i].startsWith(normalized); i++) {
+            Region region = keyRegions[i];
+            if (!containsSame(result, region)) {
+                result.add(region);
+                if (result.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int indexOf(int level, int id) {
+        return Arrays.binarySearch(regionIds, idOf(level, id));
+    }
+
+    private static boolean containsSame(List<Region> result, Region region) {
+        for (int i = 0; i < result.size(); i++) {
+            if (result.get(i) == region) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long idOf(int level, int id) {
+        return ((long) level << 32) | (id & 0xffffffffL);
+    }
+
+    private static void addKey(List<KeyEntry> keys, String key, Region region) {
+        String normalized = normalize(key);
+        if (!normalized.isEmpty()) {
+            keys.add(new KeyEntry(normalized, region));
+        }
+    }
+
+    private static String normalize(String key) {
+        return key == null ? "" : key.trim().toLowerCase(Locale.US);
+    }
+
+    private static class KeyEntry implements Comparable<KeyEntry> {
+        final String key;
+        final Region region;
+
+        KeyEntry(String key, Region region) {
+            this.key = key;
+            this.region = region;
+        }
+
+        @Override
+        public int compareTo(KeyEntry other) {
+            return key.compareTo(other.key);
+        }
+    }
+}
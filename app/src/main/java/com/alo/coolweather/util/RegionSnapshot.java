@@ -0,0 +1,387 @@
+package com.alo.coolweather.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 只读的省市县二进制快照，用FileChannel.map映射到内存，按下标直接读取，
+ * 遍历、查找、复制名称都不产生对象，只有getName/getCode会创建String。
+ * <p>
+ * 文件格式（大端）：
+ * <pre>
+ * 头部      magic, 格式版本, 省数, 市数, 县数, 字符表长度（各一个int）
+ * 记录      每级按id升序，每条 RECORD_INTS 个int：
+ *           id, 父级下标, 名称偏移, 名称长度, 代号偏移, 代号长度, 子级起点, 子级数
+ * 子级下标  省、市两级各一个int数组，记录的[子级起点, 子级起点+子级数)指向下一级的下标
+ * 字符表    UTF-16字符，相同的名称和代号只存一份
+ * </pre>
+ * Created by alo on 2016/12/28.
+ */
+
+public class RegionSnapshot {
+    public static final int LEVEL_PROVINCE = 0;
+    public static final int LEVEL_CITY = 1;
+    public static final int LEVEL_COUNTY = 2;
+
+    /**
+     * 默认的快照文件名
+     */
+    public static final String FILE_NAME = "regions.snapshot";
+
+    private static final int MAGIC = 0x43575253;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_INTS = 6;
+    private static final int LEVELS = 3;
+
+    private static final int RECORD_INTS = 8;
+    private static final int ID = 0;
+    private static final int PARENT = 1;
+    private static final int NAME_OFFSET = 2;
+    private static final int NAME_LENGTH = 3;
+    private static final int CODE_OFFSET = 4;
+    private static final int CODE_LENGTH = 5;
+    private static final int CHILD_START = 6;
+    private static final int CHILD_COUNT = 7;
+
+    private final IntBuffer ints;
+    private final CharBuffer chars;
+    private final int[] counts = new int[LEVELS];
+    /**
+     * 各级记录在ints中的起始位置
+     */
+    private final int[] recordBase = new int[LEVELS];
+    /**
+     * 省、市两级子级下标数组在ints中的起始位置
+     */
+    private final int[] childBase = new int[LEVELS - 1];
+
+    private RegionSnapshot(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_INTS * 4) {
+            throw new IOException("Snapshot too short: " + buffer.capacity());
+        }
+        IntBuffer header = buffer.asIntBuffer();
+        if (header.get(0) != MAGIC || header.get(1) != FORMAT_VERSION) {
+            throw new IOException("Not a region snapshot or unsupported version");
+        }
+        int position = HEADER_INTS;
+        for (int level = 0; level < LEVELS; level++) {
+            counts[level] = header.get(2 + level);
+            if (counts[level] < 0) {
+                throw new IOException("Corrupt snapshot header");
+            }
+            recordBase[level] = position;
+            position += counts[level] * RECORD_INTS;
+        }
+        for (int level = 0; level < LEVELS - 1; level++) {
+            childBase[level] = position;
+            position += counts[level + 1];
+        }
+        int charCount = header.get(2 + LEVELS);
+        long expected = position * 4L + charCount * 2L;
+        if (charCount < 0 || expected != buffer.capacity()) {
+            throw new IOException("Snapshot size " + buffer.capacity() + " does not match header " + expected);
+        }
+        ints = header;
+        buffer.position(position * 4);
+        chars = buffer.slice().asCharBuffer();
+    }
+
+    /**
+     * 映射快照文件，映射在实例被回收前一直有效，文件本身打开后即关闭
+     */
+    public static RegionSnapshot open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return new RegionSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 某一级的记录数
+     */
+    public int getCount(int level) {
+        return counts[level];
+    }
+
+    /**
+     * 记录对应的数据库id
+     */
+    public int getId(int level, int index) {
+        return field(level, index, ID);
+    }
+
+    /**
+     * 按数据库id二分查找记录下标，找不到返回-1
+     */
+    public int indexOf(int level, int id) {
+        int low = 0;
+        int high = counts[level] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = getId(level, mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 父级记录的下标，省级返回-1
+     */
+    public int getParent(int level, int index) {
+        return field(level, index, PARENT);
+    }
+
+    public int getChildCount(int level, int index) {
+        return level == LEVEL_COUNTY ? 0 : field(level, index, CHILD_COUNT);
+    }
+
+    /**
+     * 第n个子级在下一级中的下标，子级按id升序
+     */
+    public int getChild(int level, int index, int n) {
+        if (n < 0 || n >= getChildCount(level, index)) {
+            throw new IndexOutOfBoundsException("child " + n + " of " + index);
+        }
+        return ints.get(childBase[level] + field(level, index, CHILD_START) + n);
+    }
+
+    public int getNameLength(int level, int index) {
+        return field(level, index, NAME_LENGTH);
+    }
+
+    /**
+     * 把名称复制到dst的offset处，返回字符数，不分配对象
+     */
+    public int copyName(int level, int index, char[] dst, int offset) {
+        return copy(field(level, index, NAME_OFFSET), field(level, index, NAME_LENGTH), dst, offset);
+    }
+
+    public String getName(int level, int index) {
+        return string(field(level, index, NAME_OFFSET), field(level, index, NAME_LENGTH));
+    }
+
+    public String getCode(int level, int index) {
+        return string(field(level, index, CODE_OFFSET), field(level, index, CODE_LENGTH));
+    }
+
+    private int field(int level, int index, int field) {
+        if (index < 0 || index >= counts[level]) {
+            throw new IndexOutOfBoundsException("index " + index + " of level " + level);
+        }
+        return ints.get(recordBase[level] + index * RECORD_INTS + field);
+    }
+
+    private int copy(int offset, int length, char[] dst, int dstOffset) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] = chars.get(offset + i);
+        }
+        return length;
+    }
+
+    private String string(int offset, int length) {
+        char[] value = new char[length];
+        copy(offset, length, value, 0);
+        return new String(value);
+    }
+
+    /**
+     * 收集省市县后一次写出快照。父级不存在的记录会被丢弃。
+     */
+    public static class Writer {
+        private final List<List<Entry>> levels = new ArrayList<>();
+
+        public Writer() {
+            for (int level = 0; level < LEVELS; level++) {
+                levels.add(new ArrayList<Entry>());
+            }
+        }
+
+        public Writer addProvince(int id, String name, String code) {
+            return add(LEVEL_PROVINCE, id, 0, name, code);
+        }
+
+        public Writer addCity(int id, int provinceId, String name, String code) {
+            return add(LEVEL_CITY, id, provinceId, name, code);
+        }
+
+        public Writer addCounty(int id, int cityId, String name, String code) {
+            return add(LEVEL_COUNTY, id, cityId, name, code);
+        }
+
+        private Writer add(int level, int id, int parentId, String name, String code) {
+            levels.get(level).add(new Entry(id, parentId, name == null ? "" : name, code == null ? "" : code));
+            return this;
+        }
+
+        /**
+         * 先写临时文件再改名替换，读取方不会看到写了一半的快照
+         */
+        public void writeTo(File file) throws IOException {
+            ByteBuffer buffer = toByteBuffer();
+            File tmp = new File(file.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                FileChannel channel = out.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            }
+        }
+
+        ByteBuffer toByteBuffer() {
+            Comparator<Entry> byId = new Comparator<Entry>() {
+                @Override
+                public int compare(Entry a, Entry b) {
+                    return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+                }
+            };
+            // 排序并按父级id换算父级下标，丢弃孤儿
+            List<List<Entry>> sorted = new ArrayList<>();
+            Map<Integer, Integer> parentIndex = null;
+            for (int level = 0; level < LEVELS; level++) {
+                List<Entry> entries = new ArrayList<>(levels.get(level));
+                Collections.sort(entries, byId);
+                List<Entry> kept = new ArrayList<>(entries.size());
+                Map<Integer, Integer> indexById = new HashMap<>();
+                for (Entry entry : entries) {
+                    if (indexById.containsKey(entry.id)) {
+                        continue;
+                    }
+                    if (parentIndex != null) {
+                        Integer parent = parentIndex.get(entry.parentId);
+                        if (parent == null) {
+                            continue;
+                        }
+                        entry.parent = parent;
+                    } else {
+                        entry.parent = -1;
+                    }
+                    indexById.put(entry.id, kept.size());
+                    kept.add(entry);
+                }
+                sorted.add(kept);
+                parentIndex = indexById;
+            }
+
+            // 子级下标按父级顺序排列，同一父级内保持id升序
+            int[][] children = new int[LEVELS - 1][];
+            for (int level = 0; level < LEVELS - 1; level++) {
+                List<Entry> parents = sorted.get(level);
+                List<Entry> kids = sorted.get(level + 1);
+                for (Entry kid : kids) {
+                    parents.get(kid.parent).childCount++;
+                }
+                int start = 0;
+                for (Entry parent : parents) {
+                    parent.childStart = start;
+                    start += parent.childCount;
+                }
+                int[] filled = new int[parents.size()];
+                children[level] = new int[kids.size()];
+                for (int i = 0; i < kids.size(); i++) {
+                    Entry parent = parents.get(kids.get(i).parent);
+                    children[level][parent.childStart + filled[kids.get(i).parent]++] = i;
+                }
+            }
+
+            // 字符表，相同字符串共用一份
+            StringBuilder table = new StringBuilder();
+            Map<String, Integer> interned = new HashMap<>();
+            for (List<Entry> entries : sorted) {
+                for (Entry entry : entries) {
+                    entry.nameOffset = intern(table, interned, entry.name);
+                    entry.codeOffset = intern(table, interned, entry.code);
+                }
+            }
+
+            int intCount = HEADER_INTS;
+            for (int level = 0; level < LEVELS; level++) {
+                intCount += sorted.get(level).size() * RECORD_INTS;
+            }
+            for (int[] levelChildren : children) {
+                intCount += levelChildren.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(intCount * 4 + table.length() * 2);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION);
+            for (List<Entry> entries : sorted) {
+                buffer.putInt(entries.size());
+            }
+            buffer.putInt(table.length());
+            for (List<Entry> entries : sorted) {
+                for (Entry entry : entries) {
+                    buffer.putInt(entry.id).putInt(entry.parent)
+                            .putInt(entry.nameOffset).putInt(entry.name.length())
+                            .putInt(entry.codeOffset).putInt(entry.code.length())
+                            .putInt(entry.childStart).putInt(entry.childCount);
+                }
+            }
+            for (int[] levelChildren : children) {
+                for (int child : levelChildren) {
+                    buffer.putInt(child);
+                }
+            }
+            for (int i = 0; i < table.length(); i++) {
+                buffer.putChar(table.charAt(i));
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private static int intern(StringBuilder table, Map<String, Integer> interned, String value) {
+            Integer offset = interned.get(value);
+            if (offset == null) {
+                offset = table.length();
+                table.append(value);
+                interned.put(value, offset);
+            }
+            return offset;
+        }
+
+        private static class Entry {
+            final int id;
+            final int parentId;
+            final String name;
+            final String code;
+            int parent;
+            int nameOffset;
+            int codeOffset;
+            int childStart;
+            int childCount;
+
+            Entry(int id, int parentId, String name, String code) {
+                this.id = id;
+                this.parentId = parentId;
+                this.name = name;
+                this.code = code;
+            }
+        }
+    }
+}
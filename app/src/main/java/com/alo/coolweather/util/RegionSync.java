@@ -0,0 +1,284 @@
+package com.alo.coolweather.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.alo.coolweather.model.City;
+import com.alo.coolweather.model.CoolWeatherDB;
+import com.alo.coolweather.model.County;
+import com.alo.coolweather.model.Province;
+import com.alo.coolweather.model.RegionDelta;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一次性同步全国省市县数据：city.xml -> city{省代号}.xml -> city{市代号}.xml，
+ * 每一级内部按固定并发数并行下载，整级下载完后在一个事务中与已有数据比较，只写入新增、改名和删除。
+ * 默认跳过已经有下级数据的省、市，所以中断后再次执行只会补齐缺失的部分；
+ * 刷新模式下重新下载所有级别，服务器数据没有变化时不会写入任何行。
+ * Created by alo on 2016/12/23.
+ */
+
+public class RegionSync {
+    private static final String TAG = "RegionSync";
+    /**
+     * SharedPreferences中标记已完成全量同步的键
+     */
+    public static final String KEY_REGIONS_SYNCED = "regions_synced";
+    /**
+     * SharedPreferences中记录上一次完整同步时间的键
+     */
+    private static final String KEY_REGIONS_SYNCED_AT = "regions_synced_at";
+    /**
+     * 完整同步之后，每隔这么久在后台刷新一次，以获得服务器上的行政区划调整
+     */
+    private static final long REFRESH_INTERVAL = 7 * 24 * 60 * 60 * 1000L;
+    /**
+     * 默认并发下载数
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    public static final int LEVEL_PROVINCE = 0;
+    public static final int LEVEL_CITY = 1;
+    public static final int LEVEL_COUNTY = 2;
+
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * 同步进度回调，在下载线程中调用
+     */
+    public interface ProgressListener {
+        void onProgress(int level, int done, int total);
+    }
+
+    /**
+     * 同步结果
+     */
+    public static class Result {
+        public int provinces;
+        public int cities;
+        public int counties;
+        public int failures;
+        public boolean cancelled;
+        /**
+         * 写入数据库的改动
+         */
+        public RegionDelta delta = RegionDelta.EMPTY;
+
+        /**
+         * 没有失败也没有被取消，说明省市县数据已经完整
+         */
+        public boolean isComplete() {
+            return failures == 0 && !cancelled;
+        }
+
+        @Override
+        public String toString() {
+            return "RegionSync.Result{provinces=" + provinces + ", cities=" + cities + ", counties=" + counties
+                    + ", failures=" + failures + ", cancelled=" + cancelled + ", delta=" + delta + "}";
+        }
+    }
+
+    private final CoolWeatherDB coolWeatherDB;
+    private final int parallelism;
+    private final boolean refreshExisting;
+    private volatile boolean cancelled;
+
+    public RegionSync(CoolWeatherDB coolWeatherDB, int parallelism) {
+        this(coolWeatherDB, parallelism, false);
+    }
+
+    /**
+     * @param refreshExisting 为true时已经有下级数据的省、市也重新下载并比较
+     */
+    public RegionSync(CoolWeatherDB coolWeatherDB, int parallelism, boolean refreshExisting) {
+        this.coolWeatherDB = coolWeatherDB;
+        this.parallelism = parallelism;
+        this.refreshExisting = refreshExisting;
+    }
+
+    /**
+     * 如果还没有完成过全量同步，就在后台执行一次，完成后记录到SharedPreferences；
+     * 已经同步过并且超过REFRESH_INTERVAL时，在后台以刷新模式执行一次。
+     * 同一时间只会有一次同步在进行。
+     */
+    public static void syncInBackground(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+        // 旧版本已同步过但还没有快照时再走一遍，各级都已有数据，只会补写快照
+        boolean synced = prefs.getBoolean(KEY_REGIONS_SYNCED, false) && getSnapshotFile(appContext).exists();
+        long syncedAt = prefs.getLong(KEY_REGIONS_SYNCED_AT, 0);
+        final boolean refresh = synced && Math.abs(System.currentTimeMillis() - syncedAt) >= REFRESH_INTERVAL;
+        if ((synced && !refresh) || !running.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CoolWeatherDB coolWeatherDB = CoolWeatherDB.getInstance(appContext);
+                    Result result = new RegionSync(coolWeatherDB, DEFAULT_PARALLELISM, refresh).run(null);
+                    Log.i(TAG, result.toString());
+                    File snapshotFile = getSnapshotFile(appContext);
+                    if (!result.delta.isEmpty() || !snapshotFile.exists()) {
+                        // 有改动时快照已经过时，即使这次没有完整同步也不能继续使用
+                        if (result.isComplete()) {
+                            writeSnapshot(coolWeatherDB, snapshotFile);
+                        } else {
+                            invalidateSnapshot(appContext);
+                        }
+                    }
+                    if (result.isComplete()) {
+                        prefs.edit().putBoolean(KEY_REGIONS_SYNCED, true)
+                                .putLong(KEY_REGIONS_SYNCED_AT, System.currentTimeMillis()).apply();
+                    }
+                } finally {
+                    running.set(false);
+                }
+            }
+        }, TAG);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * 全部省市县同步完成后写出的二进制快照，选择地区时优先从这里读取
+     */
+    public static File getSnapshotFile(Context context) {
+        return new File(context.getFilesDir(), RegionSnapshot.FILE_NAME);
+    }
+
+    /**
+     * 省市县数据有了改动、快照已经过时时调用：删除快照，下一次syncInBackground会重新写出
+     */
+    public static void invalidateSnapshot(Context context) {
+        File file = getSnapshotFile(context);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "cannot delete snapshot " + file);
+        }
+    }
+
+    private static void writeSnapshot(CoolWeatherDB coolWeatherDB, File file) {
+        try {
+            coolWeatherDB.writeRegionSnapshot(file);
+            Log.i(TAG, "snapshot written, " + file.length() + " bytes");
+        } catch (IOException e) {
+            // 没有快照时仍从数据库读取，不影响使用
+            Log.w(TAG, "cannot write snapshot", e);
+        }
+    }
+
+    /**
+     * 取消正在进行的同步，已下载的数据仍会入库
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * 同步执行，只能在后台线程调用
+     */
+    public Result run(ProgressListener listener) {
+        Result result = new Result();
+
+        List<Province> provinces = coolWeatherDB.loadProvince();
+        if ((provinces.isEmpty() || refreshExisting) && !cancelled) {
+            try {
+                List<Province> fetched = Utility.parseProvinces(HttpUtil.getAllowingStale(WeatherApi.regionUrl(null)));
+                result.delta = result.delta.plus(coolWeatherDB.syncProvinces(fetched));
+                result.provinces = fetched.size();
+            } catch (Exception e) {
+                e.printStackTrace();
+                result.failures++;
+            }
+            provinces = coolWeatherDB.loadProvince();
+        }
+        if (listener != null) {
+            listener.onProgress(LEVEL_PROVINCE, 1, 1);
+        }
+
+        final List<Province> pendingProvinces = new ArrayList<>();
+        for (Province province : provinces) {
+            if (refreshExisting || coolWeatherDB.loadCity(province.getId()).isEmpty()) {
+                pendingProvinces.add(province);
+            }
+        }
+        // 按上级分组，增量同步逐个上级比较；下载失败的上级不在其中，已有数据保持不变
+        final Map<Integer, List<City>> cities = new LinkedHashMap<>();
+        fetchAll(LEVEL_CITY, pendingProvinces.size(), result, listener, new ParallelTasks.Task() {
+            @Override
+            public void run(int index) throws Exception {
+                Province province = pendingProvinces.get(index);
+                List<City> fetched = Utility.parseCities(
+                        HttpUtil.getAllowingStale(WeatherApi.regionUrl(province.getProvinceCode())), province.getId());
+                synchronized (cities) {
+                    cities.put(province.getId(), fetched);
+                }
+            }
+        });
+        result.delta = result.delta.plus(coolWeatherDB.syncCities(cities));
+        for (List<City> fetched : cities.values()) {
+            result.cities += fetched.size();
+        }
+
+        final List<City> pendingCities = new ArrayList<>();
+        for (Province province : coolWeatherDB.loadProvince()) {
+            for (City city : coolWeatherDB.loadCity(province.getId())) {
+                if (refreshExisting || coolWeatherDB.loadCounties(city.getId()).isEmpty()) {
+                    pendingCities.add(city);
+                }
+            }
+        }
+        final Map<Integer, List<County>> counties = new LinkedHashMap<>();
+        fetchAll(LEVEL_COUNTY, pendingCities.size(), result, listener, new ParallelTasks.Task() {
+            @Override
+            public void run(int index) throws Exception {
+                City city = pendingCities.get(index);
+                List<County> fetched = Utility.parseCounties(
+                        HttpUtil.getAllowingStale(WeatherApi.regionUrl(city.getCityCode())), city.getId());
+                synchronized (counties) {
+                    counties.put(city.getId(), fetched);
+                }
+            }
+        });
+        result.delta = result.delta.plus(coolWeatherDB.syncCounties(counties));
+        for (List<County> fetched : counties.values()) {
+            result.counties += fetched.size();
+        }
+
+        result.cancelled = cancelled;
+        return result;
+    }
+
+    /**
+     * 以parallelism个线程执行total个下载任务，取消后剩余的任务直接跳过
+     */
+    private void fetchAll(final int level, int total, Result result, final ProgressListener listener,
+                          final ParallelTasks.Task fetcher) {
+        result.failures += ParallelTasks.runAll(TAG, parallelism, total, new ParallelTasks.Task() {
+            @Override
+            public void run(int index) throws Exception {
+                if (!cancelled) {
+                    fetcher.run(index);
+                }
+            }
+        }, listener == null ? null : new ParallelTasks.ProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+                listener.onProgress(level, done, total);
+            }
+        });
+        if (Thread.currentThread().isInterrupted()) {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.alo.coolweather.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 单遍扫描“代号|城市,代号|城市”格式的数据，每解析出一行就回调一次，
+ * 不走正则，也不生成中间数组。格式不正确的行会被跳过并计数。
+ * Created by alo on 2016/12/22.
+ */
+
+public class RegionTokenizer {
+    private static final char ROW_SEPARATOR = ',';
+    private static final char FIELD_SEPARATOR = '|';
+
+    /**
+     * 解析结果回调
+     */
+    public interface Callback {
+        void onRegion(String code, String name);
+    }
+
+    /**
+     * 只有按Reader解析时才需要，延迟分配
+     */
+    private char[] buffer;
+    private final StringBuilder row = new StringBuilder(32);
+    private int rowCount;
+    private int badRowCount;
+
+    /**
+     * 解析内存中的数据，返回成功解析的行数
+     */
+    public int tokenize(CharSequence input, Callback callback) {
+        reset();
+        int length = input.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (input.charAt(i) == ROW_SEPARATOR) {
+                emitRow(input, start, i, callback);
+                start = i + 1;
+            }
+        }
+        emitRow(input, start, length, callback);
+        return rowCount;
+    }
+
+    /**
+     * 边读边解析，适合直接消费网络或文件流，返回成功解析的行数
+     */
+    public int tokenize(Reader reader, Callback callback) throws IOException {
+        reset();
+        if (buffer == null) {
+            buffer = new char[1024];
+        }
+        int len;
+        while ((len = reader.read(buffer)) != -1) {
+            for (int i = 0; i < len; i++) {
+                char c = buffer[i];
+                if (c == ROW_SEPARATOR) {
+                    emitRow(row, 0, row.length(), callback);
+                    row.setLength(0);
+                } else {
+                    row.append(c);
+                }
+            }
+        }
+        emitRow(row, 0, row.length(), callback);
+        row.setLength(0);
+        return rowCount;
+    }
+
+    /**
+     * 最近一次解析成功的行数
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * 最近一次解析中被跳过的错误行数，空行不计入
+     */
+    public int getBadRowCount() {
+        return badRowCount;
+    }
+
+    private void reset() {
+        rowCount = 0;
+        badRowCount = 0;
+        row.setLength(0);
+    }
+
+    /**
+     * 处理 [start, end) 区间内的一行，去掉首尾空白后要求恰好包含一个分隔符且两侧都不为空
+     */
+    private void emitRow(CharSequence input, int start, int end, Callback callback) {
+        while (start < end && Character.isWhitespace(input.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(input.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+        int separator = -1;
+        for (int i = start; i < end; i++) {
+            if (input.charAt(i) == FIELD_SEPARATOR) {
+                if (separator != -1) {
+                    badRowCount++;
+                    return;
+                }
+                separator = i;
+            }
+        }
+        if (separator <= start || separator == end - 1) {
+            badRowCount++;
+            return;
+        }
+        rowCount++;
+        callback.onRegion(input.subSequence(start, separator).toString(),
+                input.subSequence(separator + 1, end).toString());
+    }
+}
@@ -0,0 +1,106 @@
+package com.alo.coolweather.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 完整读取HTTP响应体：按Content-Type声明的字符集解码，透明处理gzip压缩，
+ * 并限制响应体的最大字节数。读取缓冲区按线程复用，不会每次请求都重新分配。
+ * Created by alo on 2016/12/22.
+ */
+
+public class ResponseBodyReader {
+    /**
+     * 默认的响应体上限
+     */
+    public static final int DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+    /**
+     * 未声明字符集时使用的编码
+     */
+    public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    /**
+     * 超过这个大小的缓冲区用完后不再保留，避免一次大响应长期占用内存
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_BUFFER_SIZE];
+        }
+    };
+
+    private ResponseBodyReader() {
+    }
+
+    /**
+     * 响应体超过上限，重试也不会成功
+     */
+    public static class BodyTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public BodyTooLargeException(int maxBytes) {
+            super("Response body exceeds " + maxBytes + " bytes");
+        }
+    }
+
+    /**
+     * 读取并解码整个响应体，超过maxBytes（解压后）时抛出BodyTooLargeException
+     */
+    public static String read(InputStream inputStream, String contentType, String contentEncoding,
+                              int maxBytes) throws IOException {
+        InputStream in = inputStream;
+        if (contentEncoding != null && "gzip".equalsIgnoreCase(contentEncoding.trim())) {
+            in = new GZIPInputStream(inputStream);
+        }
+        byte[] buffer = buffers.get();
+        int length = 0;
+        int len;
+        while ((len = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += len;
+            if (length > maxBytes) {
+                throw new BodyTooLargeException(maxBytes);
+            }
+            if (length == buffer.length) {
+                // 最多扩到 maxBytes + 1，多出的一个字节用来判断是否超限
+                byte[] grown = new byte[(int) Math.min((long) buffer.length * 2, (long) maxBytes + 1)];
+                System.arraycopy(buffer, 0, grown, 0, length);
+                buffer = grown;
+            }
+        }
+        if (buffer.length <= MAX_RETAINED_BUFFER_SIZE) {
+            buffers.set(buffer);
+        }
+        return new String(buffer, 0, length, charsetOf(contentType));
+    }
+
+    /**
+     * 从Content-Type中解析charset参数，缺失或不支持时返回默认编码
+     */
+    static Charset charsetOf(String contentType) {
+        if (contentType != null) {
+            String[] params = contentType.split(";");
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                    String name = param.substring(8).trim();
+                    if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+                        name = name.substring(1, name.length() - 1);
+                    }
+                    try {
+                        return Charset.forName(name);
+                    } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                        return DEFAULT_CHARSET;
+                    }
+                }
+            }
+        }
+        return DEFAULT_CHARSET;
+    }
+}
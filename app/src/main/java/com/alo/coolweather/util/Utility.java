@@ -3,18 +3,20 @@ package com.alo.coolweather.util;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
-import android.text.TextUtils;
+import android.util.Log;
 
 import com.alo.coolweather.model.City;
 import com.alo.coolweather.model.CoolWeatherDB;
 import com.alo.coolweather.model.County;
 import com.alo.coolweather.model.Province;
-
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.alo.coolweather.model.RegionDelta;
+import com.alo.coolweather.model.Weather;
+import com.alo.coolweather.model.WeatherInfo;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * 由于服务器返回的省市县数据都是“代号|城市,代号|城市”这种格式的，所以我
@@ -23,73 +25,128 @@ import java.util.Date;
  */
 
 public class Utility {
+    private static final String TAG = "Utility";
+
+    private static final Histogram regionParseLatency = Metrics.histogram("parse.regions_us");
+    private static final Histogram weatherParseLatency = Metrics.histogram("parse.weather_us");
+    private static final Metrics.Counter badRegionRows = Metrics.counter("parse.bad_region_rows");
+
     /**
-     * 解析与处理服务器返回的省级数据
+     * 解析服务器返回的省级数据，与已有数据比较后只写入改动，返回这次的改动（RegionDelta），没有改动时为空；数据无法解析时返回null
      */
-    public synchronized static boolean handleProvincesResponse(CoolWeatherDB coolWeatherDB, String response) {
-        if (!TextUtils.isEmpty(response)) {
-            String[] allProvinces = response.split(",");
-            if (allProvinces != null && allProvinces.length > 0) {
-                for (String p : allProvinces
-                        ) {
-                    //split方法的需要的参数是正则表达式，| 在正则表达式中是特殊符号，需要转义。
-                    String[] arrays = p.split("\\|");
-                    Province province = new Province();
-                    province.setProvinceName(arrays[1]);
-                    province.setProvinceCode(arrays[0]);
-
-                    coolWeatherDB.saveProvince(province);
-                }
-                return true;
-            }
+    public synchronized static RegionDelta handleProvincesResponse(CoolWeatherDB coolWeatherDB, String response) {
+        List<Province> provinces = parseProvinces(response);
+        if (provinces.size() > 0) {
+            return coolWeatherDB.syncProvinces(provinces);
         }
-        return false;
+        return null;
     }
 
     /**
-     * 解析与处理服务器返回的市级数据
+     * 解析服务器返回的市级数据，与已有数据比较后只写入改动，返回这次的改动（RegionDelta），没有改动时为空；数据无法解析时返回null
      */
-    public synchronized static boolean handleCitiesResponse(CoolWeatherDB coolWeatherDB, String response, int provinceId) {
-        if (!TextUtils.isEmpty(response)) {
-            String[] allCities = response.split(",");
-            if (allCities != null && allCities.length > 0) {
-                for (String c : allCities
-                        ) {
-                    //split方法的需要的参数是正则表达式，| 在正则表达式中是特殊符号，需要转义。
-                    String[] arrays = c.split("\\|");
-                    City city = new City();
-                    city.setCityName(arrays[1]);
-                    city.setCityCode(arrays[0]);
-                    city.setProvinceId(provinceId);
-                    coolWeatherDB.saveCity(city);
-                }
-                return true;
-            }
+    public synchronized static RegionDelta handleCitiesResponse(CoolWeatherDB coolWeatherDB, String response, int provinceId) {
+        List<City> cities = parseCities(response, provinceId);
+        if (cities.size() > 0) {
+            return coolWeatherDB.syncCities(provinceId, cities);
         }
-        return false;
+        return null;
+    }
+
+    /**
+     * 解析服务器返回的县级数据，与已有数据比较后只写入改动，返回这次的改动（RegionDelta），没有改动时为空；数据无法解析时返回null
+     */
+    public synchronized static RegionDelta handleCountiesResponse(CoolWeatherDB coolWeatherDB, String response, int cityId) {
+        List<County> counties = parseCounties(response, cityId);
+        if (counties.size() > 0) {
+            return coolWeatherDB.syncCounties(cityId, counties);
+        }
+        return null;
+    }
+
+    /**
+     * 只解析省级数据不入库，可在多个线程中同时调用
+     */
+    public static List<Province> parseProvinces(String response) {
+        final List<Province> provinces = new ArrayList<>();
+        tokenize(response, new RegionTokenizer.Callback() {
+            @Override
+            public void onRegion(String code, String name) {
+                Province province = new Province();
+                province.setProvinceName(name);
+                province.setProvinceCode(code);
+                provinces.add(province);
+            }
+        });
+        return provinces;
     }
 
     /**
-     * 解析与处理服务器返回的县级数据
+     * 只解析市级数据不入库，可在多个线程中同时调用
      */
-    public synchronized static boolean handleCountiesResponse(CoolWeatherDB coolWeatherDB, String response, int cityId) {
-        if (!TextUtils.isEmpty(response)) {
-            String[] allCounties = response.split(",");
-            if (allCounties != null && allCounties.length > 0) {
-                for (String c : allCounties
-                        ) {
-                    //split方法的需要的参数是正则表达式，| 在正则表达式中是特殊符号，需要转义。
-                    String[] arrays = c.split("\\|");
-                    County county = new County();
-                    county.setCountyName(arrays[1]);
-                    county.setCountyCode(arrays[0]);
-                    county.setCityId(cityId);
-                    coolWeatherDB.saveCounty(county);
-                }
-                return true;
+    public static List<City> parseCities(String response, final int provinceId) {
+        final List<City> cities = new ArrayList<>();
+        tokenize(response, new RegionTokenizer.Callback() {
+            @Override
+            public void onRegion(String code, String name) {
+                City city = new City();
+                city.setCityName(name);
+                city.setCityCode(code);
+                city.setProvinceId(provinceId);
+                cities.add(city);
             }
+        });
+        return cities;
+    }
+
+    /**
+     * 只解析县级数据不入库，可在多个线程中同时调用
+     */
+    public static List<County> parseCounties(String response, final int cityId) {
+        final List<County> counties = new ArrayList<>();
+        tokenize(response, new RegionTokenizer.Callback() {
+            @Override
+            public void onRegion(String code, String name) {
+                County county = new County();
+                county.setCountyName(name);
+                county.setCountyCode(code);
+                county.setCityId(cityId);
+                counties.add(county);
+            }
+        });
+        return counties;
+    }
+
+    /**
+     * 解析省市县数据，格式错误的行跳过并计入parse.bad_region_rows
+     */
+    private static void tokenize(String response, RegionTokenizer.Callback callback) {
+        // 不用TextUtils和Log，解析路径不依赖Android框架，可以在JVM上做基准测试
+        if (response == null || response.length() == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        RegionTokenizer tokenizer = new RegionTokenizer();
+        tokenizer.tokenize(response, callback);
+        regionParseLatency.recordSince(start);
+        if (tokenizer.getBadRowCount() > 0) {
+            badRegionRows.add(tokenizer.getBadRowCount());
         }
-        return false;
+    }
+
+    /**
+     * 解析县级代号查询的响应“县级代号|天气代号”，格式不对时返回null
+     */
+    public static String parseWeatherCode(String response) {
+        if (response == null) {
+            return null;
+        }
+        int separator = response.indexOf('|');
+        if (separator < 0 || response.indexOf('|', separator + 1) >= 0) {
+            return null;
+        }
+        String weatherCode = response.substring(separator + 1).trim();
+        return weatherCode.length() == 0 ? null : weatherCode;
     }
 
     /**
@@ -98,38 +155,55 @@ public class Utility {
      * {"city":"昆山","cityid":"101190404","temp1":"21℃","temp2":"9℃",
      * "weather":"多云转小雨","img1":"d1.gif","img2":"n7.gif","ptime":"11:00"}
      * }
+     * 返回解析结果，格式错误时不会写入任何数据，调用方可以根据结果提示用户。
      */
-    public static void handleWeatherResponse(Context context, String response) {
-        try {
-            JSONObject jsonObject = new JSONObject(response);
-            jsonObject = jsonObject.getJSONObject("weatherinfo");
-            String cityName = jsonObject.getString("city");
-            String weatherCode = jsonObject.getString("cityid");
-            String temp1 = jsonObject.getString("temp1");
-            String temp2 = jsonObject.getString("temp2");
-            String weatherDesp = jsonObject.getString("weather");
-            String publishTime = jsonObject.getString("ptime");
-            saveWeatherInfo(context, cityName, weatherCode, temp1, temp2,
-                    weatherDesp, publishTime);
-        } catch (JSONException e) {
-            e.printStackTrace();
+    public static WeatherParser.Result handleWeatherResponse(Context context, String response) {
+        WeatherParser.Result result = parseWeatherInfo(response);
+        if (result.isSuccess()) {
+            saveWeatherInfo(context, toWeather(result.getWeatherInfo()));
+        } else {
+            Log.w(TAG, "bad weather response: " + result.getError());
         }
+        return result;
+    }
+
+    /**
+     * 流式解析天气数据，不入库
+     */
+    public static WeatherParser.Result parseWeatherInfo(String response) {
+        long start = System.nanoTime();
+        WeatherParser.Result result = WeatherParser.parse(response);
+        weatherParseLatency.recordSince(start);
+        return result;
+    }
+
+    /**
+     * 只解析天气数据不入库，格式错误时返回null。返回的实例已填好获取日期和时间。
+     */
+    public static Weather parseWeather(String response) {
+        WeatherParser.Result result = parseWeatherInfo(response);
+        return result.isSuccess() ? toWeather(result.getWeatherInfo()) : null;
     }
 
     /**
-     * 将服务器返回的所有天气信息存储到SharedPreferences文件中。
+     * 填上获取日期和时间，转换成Weather表中的一行
      */
-    private static void saveWeatherInfo(Context context, String cityName, String weatherCode, String temp1, String temp2, String weatherDesp, String publishTime) {
+    public static Weather toWeather(WeatherInfo weatherInfo) {
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy年M月d日");
+        return weatherInfo.toWeather(sdf.format(new Date()), System.currentTimeMillis());
+    }
+
+    /**
+     * 将服务器返回的天气信息异步存储到Weather表中，SharedPreferences只记录当前选中的城市。
+     * 同时发布为当前天气的快照，界面直接从内存显示。
+     */
+    private static void saveWeatherInfo(Context context, Weather weather) {
+        CoolWeatherDB.getInstance(context).saveWeatherAsync(weather);
+        CurrentWeather.publish(weather);
+
         SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(context).edit();
         editor.putBoolean("city_selected", true);
-        editor.putString("city_name", cityName);
-        editor.putString("weather_code", weatherCode);
-        editor.putString("temp1", temp1);
-        editor.putString("temp2", temp2);
-        editor.putString("weather_desp", weatherDesp);
-        editor.putString("publish_time", publishTime);
-        editor.putString("current_date", sdf.format(new Date()));
-        editor.commit();
+        editor.putString("weather_code", weather.getWeatherCode());
+        editor.apply();
     }
 }
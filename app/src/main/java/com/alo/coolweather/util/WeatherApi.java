@@ -0,0 +1,45 @@
+package com.alo.coolweather.util;
+
+/**
+ * 天气服务器的接口地址。所有请求都从这里拼出地址，基础地址可以替换成本机的模拟服务器，用于测试和压测。
+ * Created by alo on 2017/1/5.
+ */
+
+public class WeatherApi {
+    public static final String DEFAULT_BASE_URL = "http://www.weather.com.cn/data/";
+
+    private static volatile String baseUrl = DEFAULT_BASE_URL;
+
+    private WeatherApi() {
+    }
+
+    /**
+     * 替换基础地址，例如 http://10.0.2.2:8080/data/ ，末尾没有斜杠时自动补上；传null恢复默认地址
+     */
+    public static void setBaseUrl(String url) {
+        if (url == null || url.isEmpty()) {
+            url = DEFAULT_BASE_URL;
+        } else if (!url.endsWith("/")) {
+            url = url + "/";
+        }
+        baseUrl = url;
+    }
+
+    public static String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * 省市县列表，以及县级代号对应的天气代号。code为null或空时返回全国省份列表的地址。
+     */
+    public static String regionUrl(String code) {
+        return baseUrl + "list3/city" + (code == null ? "" : code) + ".xml";
+    }
+
+    /**
+     * 天气代号对应的天气信息
+     */
+    public static String weatherUrl(String weatherCode) {
+        return baseUrl + "cityinfo/" + weatherCode + ".html";
+    }
+}
@@ -0,0 +1,79 @@
+package com.alo.coolweather.util;
+
+import android.util.Log;
+
+import com.alo.coolweather.model.CoolWeatherDB;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 在后台批量把县级代号解析成天气代号并存入County表。用户浏览到某个城市的县列表时调用，
+ * 之后选中其中任何一个县都可以直接请求天气，省掉一次串行的网络请求。
+ * Created by alo on 2016/12/31.
+ */
+
+public class WeatherCodeResolver {
+    private static final String TAG = "WeatherCodeResolver";
+
+    /**
+     * 同时解析的县数，不与前台请求抢占太多连接
+     */
+    private static final int PARALLELISM = 2;
+
+
+    /**
+     * 一次只处理一个城市，最多再排队几个；浏览得太快时多出来的城市直接放弃，下次浏览时再解析
+     */
+    private static final WorkerPool pool = new WorkerPool("weather-code", 1, 4);
+
+    private final CoolWeatherDB coolWeatherDB;
+
+    public WeatherCodeResolver(CoolWeatherDB coolWeatherDB) {
+        this.coolWeatherDB = coolWeatherDB;
+    }
+
+    /**
+     * 在后台解析某城市下还没有天气代号的县
+     */
+    public static void resolveInBackground(final CoolWeatherDB coolWeatherDB, final int cityId) {
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    new WeatherCodeResolver(coolWeatherDB).resolveCity(cityId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "busy, skip city " + cityId);
+        }
+    }
+
+    /**
+     * 同步解析某城市下缺少天气代号的县，返回新解析出的数量，只能在后台线程调用
+     */
+    public int resolveCity(int cityId) {
+        final List<String> countyCodes = coolWeatherDB.loadCountyCodesWithoutWeatherCode(cityId);
+        if (countyCodes.isEmpty()) {
+            return 0;
+        }
+        final Map<String, String> resolved = new HashMap<>();
+        ParallelTasks.runAll("weather-code-" + cityId, PARALLELISM, countyCodes.size(), new ParallelTasks.Task() {
+            @Override
+            public void run(int index) throws Exception {
+                String countyCode = countyCodes.get(index);
+                String weatherCode = Utility.parseWeatherCode(HttpUtil.getAllowingStale(WeatherApi.regionUrl(countyCode)));
+                if (weatherCode != null) {
+                    synchronized (resolved) {
+                        resolved.put(countyCode, weatherCode);
+                    }
+                }
+            }
+        }, null);
+        coolWeatherDB.saveWeatherCodes(resolved);
+        Log.i(TAG, "resolved " + resolved.size() + "/" + countyCodes.size() + " counties of city " + cityId);
+        return resolved.size();
+    }
+}
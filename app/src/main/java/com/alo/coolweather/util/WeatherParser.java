@@ -0,0 +1,146 @@
+package com.alo.coolweather.util;
+
+import com.alo.coolweather.model.WeatherInfo;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * 流式解析天气接口返回的JSON：
+ * {"weatherinfo":{"city":"昆山","cityid":"101190404","temp1":"21℃","temp2":"9℃",
+ * "weather":"多云转小雨","img1":"d1.gif","img2":"n7.gif","ptime":"11:00"}}
+ * 一遍读完，不建立对象树，不认识的字段直接跳过。格式错误时返回带原因的Result，而不是抛异常或返回null。
+ * Created by alo on 2017/1/2.
+ */
+
+public class WeatherParser {
+
+    /**
+     * 解析结果：成功时有WeatherInfo，失败时有错误原因
+     */
+    public static class Result {
+        private final WeatherInfo weatherInfo;
+        private final String error;
+
+        private Result(WeatherInfo weatherInfo, String error) {
+            this.weatherInfo = weatherInfo;
+            this.error = error;
+        }
+
+        static Result success(WeatherInfo weatherInfo) {
+            return new Result(weatherInfo, null);
+        }
+
+        static Result failure(String error) {
+            return new Result(null, error);
+        }
+
+        public boolean isSuccess() {
+            return weatherInfo != null;
+        }
+
+        public WeatherInfo getWeatherInfo() {
+            return weatherInfo;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return isSuccess() ? weatherInfo.toString() : "WeatherParser.Result{error=" + error + "}";
+        }
+    }
+
+    private WeatherParser() {
+    }
+
+    public static Result parse(String response) {
+        if (response == null || response.length() == 0) {
+            return Result.failure("empty response");
+        }
+        return parse(new StringReader(response));
+    }
+
+    public static Result parse(Reader in) {
+        JsonReader reader = new JsonReader(in);
+        try {
+            WeatherInfo weatherInfo = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("weatherinfo".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    Result result = readWeatherInfo(reader);
+                    if (!result.isSuccess()) {
+                        return result;
+                    }
+                    weatherInfo = result.getWeatherInfo();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return weatherInfo != null ? Result.success(weatherInfo) : Result.failure("missing weatherinfo");
+        } catch (IOException e) {
+            return Result.failure("malformed json: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            // JsonReader遇到类型不符（例如顶层是数组）时抛出IllegalStateException
+            return Result.failure("unexpected json: " + e.getMessage());
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static Result readWeatherInfo(JsonReader reader) throws IOException {
+        String city = null;
+        String cityId = null;
+        String temp1 = null;
+        String temp2 = null;
+        String weather = null;
+        String publishTime = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() != JsonToken.STRING && reader.peek() != JsonToken.NUMBER) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "city":
+                    city = reader.nextString();
+                    break;
+                case "cityid":
+                    cityId = reader.nextString();
+                    break;
+                case "temp1":
+                    temp1 = reader.nextString();
+                    break;
+                case "temp2":
+                    temp2 = reader.nextString();
+                    break;
+                case "weather":
+                    weather = reader.nextString();
+                    break;
+                case "ptime":
+                    publishTime = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        String missing = cityId == null ? "cityid" : city == null ? "city" : temp1 == null ? "temp1"
+                : temp2 == null ? "temp2" : weather == null ? "weather" : publishTime == null ? "ptime" : null;
+        if (missing != null) {
+            return Result.failure("missing field " + missing);
+        }
+        return Result.success(new WeatherInfo(cityId, city, temp1, temp2, weather, publishTime));
+    }
+}
@@ -0,0 +1,107 @@
+package com.alo.coolweather.util;
+
+import com.alo.coolweather.model.CoolWeatherDB;
+import com.alo.coolweather.model.Weather;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次刷新多个城市的天气：按上限并发下载，共用同一套解析，全部结果在同一个事务中写入Weather表。
+ * Created by alo on 2016/12/24.
+ */
+
+public class WeatherRefresher {
+    /**
+     * 默认并发下载数
+     */
+    public static final int DEFAULT_CONCURRENCY = 3;
+
+    /**
+     * 一次刷新的统计数据，用于确定合适的并发数
+     */
+    public static class Stats {
+        public int cities;
+        public int succeeded;
+        public int failed;
+        /**
+         * 响应体按UTF-8编码的字节数
+         */
+        public long bytes;
+        public long wallTimeMillis;
+        public int concurrency;
+
+        @Override
+        public String toString() {
+            return "WeatherRefresher.Stats{cities=" + cities + ", succeeded=" + succeeded + ", failed=" + failed
+                    + ", bytes=" + bytes + ", wallTimeMillis=" + wallTimeMillis + ", concurrency=" + concurrency + "}";
+        }
+    }
+
+    private final CoolWeatherDB coolWeatherDB;
+    private final int concurrency;
+
+    public WeatherRefresher(CoolWeatherDB coolWeatherDB, int concurrency) {
+        this.coolWeatherDB = coolWeatherDB;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * 同步刷新给定天气代号的天气，只能在后台线程调用
+     */
+    public Stats refresh(final List<String> weatherCodes) {
+        long start = System.currentTimeMillis();
+        final List<Weather> weathers = new ArrayList<>(weatherCodes.size());
+        final AtomicLong bytes = new AtomicLong();
+        int failed = ParallelTasks.runAll("weather-refresh", concurrency, weatherCodes.size(),
+                new ParallelTasks.Task() {
+                    @Override
+                    public void run(int index) throws Exception {
+                        // 请求失败时的缓存内容（StaleResponseException）按失败计，不用它覆盖已有天气的更新时间
+                        String response = HttpUtil.get(WeatherApi.weatherUrl(weatherCodes.get(index)));
+                        bytes.addAndGet(utf8Length(response));
+                        WeatherParser.Result result = Utility.parseWeatherInfo(response);
+                        if (!result.isSuccess()) {
+                            throw new IllegalStateException("Malformed weather for " + weatherCodes.get(index)
+                                    + ": " + result.getError());
+                        }
+                        Weather weather = Utility.toWeather(result.getWeatherInfo());
+                        synchronized (weathers) {
+                            weathers.add(weather);
+                        }
+                    }
+                }, null);
+        coolWeatherDB.saveWeathersAsync(weathers);
+
+        Stats stats = new Stats();
+        stats.cities = weatherCodes.size();
+        stats.succeeded = weathers.size();
+        stats.failed = failed;
+        stats.bytes = bytes.get();
+        stats.wallTimeMillis = System.currentTimeMillis() - start;
+        stats.concurrency = concurrency;
+        return stats;
+    }
+
+    /**
+     * 不实际编码就计算出字符串的UTF-8字节数
+     */
+    static long utf8Length(CharSequence text) {
+        long length = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
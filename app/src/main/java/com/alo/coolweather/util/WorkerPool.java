@@ -0,0 +1,111 @@
+package com.alo.coolweather.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 固定线程数、有界队列的命名线程池，用来替代每次请求都new Thread的做法。
+ * 队列满时拒绝新任务并抛出RejectedExecutionException，由调用方决定如何回报错误。
+ * Created by alo on 2016/12/22.
+ */
+
+public class WorkerPool {
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public WorkerPool(final String name, int threads, int queueCapacity) {
+        this.name = name;
+        executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                rejectedCount.incrementAndGet();
+                throw new RejectedExecutionException(WorkerPool.this.name + " pool rejected task, "
+                        + (executor.isShutdown() ? "pool is shut down" : "queue is full"));
+            }
+        });
+        // 空闲时核心线程也会退出，后台没有请求时不常驻线程
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交任务，线程池已关闭或队列已满时抛出RejectedExecutionException
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * 不再接受新任务，已提交的任务会继续执行完
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 等待已提交的任务执行完毕，返回是否在超时前全部结束
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * 获取线程池当前状态的快照
+     */
+    public Stats getStats() {
+        return new Stats(name, executor.getPoolSize(), executor.getLargestPoolSize(), executor.getActiveCount(),
+                executor.getQueue().size(), executor.getCompletedTaskCount(), rejectedCount.get());
+    }
+
+    /**
+     * 线程池状态快照
+     */
+    public static class Stats {
+        public final String name;
+        public final int poolSize;
+        public final int largestPoolSize;
+        public final int activeCount;
+        public final int queuedCount;
+        public final long completedCount;
+        public final long rejectedCount;
+
+        Stats(String name, int poolSize, int largestPoolSize, int activeCount, int queuedCount,
+              long completedCount, long rejectedCount) {
+            this.name = name;
+            this.poolSize = poolSize;
+            this.largestPoolSize = largestPoolSize;
+            this.activeCount = activeCount;
+            this.queuedCount = queuedCount;
+            this.completedCount = completedCount;
+            this.rejectedCount = rejectedCount;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{threads=" + poolSize + ", largest=" + largestPoolSize + ", active=" + activeCount
+                    + ", queued=" + queuedCount + ", completed=" + completedCount + ", rejected=" + rejectedCount + "}";
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.alo.coolweather.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static com.alo.coolweather.service.RefreshPolicy.HOUR;
+import static com.alo.coolweather.service.RefreshPolicy.MINUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用可控时钟验证RefreshPolicy，并模拟一周的发布节奏统计每天的唤醒次数
+ */
+public class RefreshPolicyTest {
+    private static final long DAY = 24 * HOUR;
+    /**
+     * 模拟服务器每天的发布时刻（北京时间）
+     */
+    private static final long[] PUBLISH_OFFSETS = {8 * HOUR, 11 * HOUR, 18 * HOUR};
+
+    private long now;
+    private RefreshPolicy policy;
+    private long dayStart;
+
+    @Before
+    public void setUp() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        format.setTimeZone(TimeZone.getTimeZone("GMT+08:00"));
+        dayStart = format.parse("2016-12-26 00:00").getTime();
+        now = dayStart;
+        policy = new RefreshPolicy(new RefreshPolicy.Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return now;
+            }
+        }, new Random(42));
+    }
+
+    @Test
+    public void publishedAtMillis_resolvesToMostRecentOccurrence() throws Exception {
+        assertEquals(dayStart + 8 * HOUR, RefreshPolicy.publishedAtMillis("08:00", dayStart + 9 * HOUR));
+        assertEquals(dayStart - DAY + 18 * HOUR, RefreshPolicy.publishedAtMillis("18:00", dayStart + 9 * HOUR));
+        assertEquals(-1, RefreshPolicy.publishedAtMillis("bad", dayStart));
+        assertEquals(-1, RefreshPolicy.publishedAtMillis(null, dayStart));
+    }
+
+    @Test
+    public void freshData_waitsForNextExpectedPublish() throws Exception {
+        now = dayStart + 11 * HOUR + 5 * MINUTE;
+        long delay = policy.nextRefreshAt(dayStart + 11 * HOUR, 0) - now;
+
+        long expected = RefreshPolicy.PUBLISH_INTERVAL + RefreshPolicy.PUBLISH_SLACK - 5 * MINUTE;
+        assertTrue(delay >= expected * 9 / 10 && delay <= expected * 11 / 10);
+    }
+
+    @Test
+    public void staleData_backsOffWithAgeWithinBounds() throws Exception {
+        now = dayStart + 23 * HOUR;
+        long delay = policy.nextRefreshAt(dayStart + 18 * HOUR, 0) - now;
+        assertTrue(delay >= 2 * HOUR && delay <= 3 * HOUR);
+
+        now = dayStart + 3 * DAY;
+        assertEquals(RefreshPolicy.MAX_INTERVAL, policy.nextRefreshAt(dayStart, 0) - now);
+    }
+
+    @Test
+    public void isDue_onlyAfterNextExpectedPublish() throws Exception {
+        long publishedAt = dayStart + 11 * HOUR;
+        now = dayStart + 12 * HOUR;
+        assertFalse(policy.isDue(publishedAt, publishedAt + 5 * MINUTE));
+        now = publishedAt + RefreshPolicy.PUBLISH_INTERVAL + RefreshPolicy.PUBLISH_SLACK;
+        assertTrue(policy.isDue(publishedAt, publishedAt + 5 * MINUTE));
+        // 刚刚取过，即使数据很旧也不再请求
+        assertFalse(policy.isDue(publishedAt, now - 5 * MINUTE));
+        assertTrue(policy.isDue(-1, 0));
+    }
+
+    @Test
+    public void failures_backOffExponentiallyUpToCap() throws Exception {
+        long previousCeiling = 0;
+        for (int failures = 1; failures <= 10; failures++) {
+            long ceiling = Math.min(RefreshPolicy.MAX_BACKOFF, RefreshPolicy.BACKOFF_BASE << (failures - 1));
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.nextRefreshAt(-1, failures) - now;
+                assertTrue(delay >= ceiling / 2 && delay <= ceiling);
+            }
+            assertTrue(ceiling >= previousCeiling);
+            previousCeiling = ceiling;
+        }
+    }
+
+    @Test
+    public void simulatedWeek_savesWakeupsComparedToFixedPolling() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm");
+        format.setTimeZone(TimeZone.getTimeZone("GMT+08:00"));
+        int days = 7;
+        long end = dayStart + days * DAY;
+        int wakeups = 0;
+        long seenPublish = -1;
+        long totalLag = 0;
+        int publishesSeen = 0;
+        now = dayStart;
+        while (now < end) {
+            wakeups++;
+            long latestPublish = latestPublishBefore(now);
+            if (latestPublish != seenPublish) {
+                if (seenPublish != -1) {
+                    totalLag += now - latestPublish;
+                    publishesSeen++;
+                }
+                seenPublish = latestPublish;
+            }
+            now = policy.nextRefreshAt(RefreshPolicy.publishedAtMillis(format.format(latestPublish), now), 0);
+        }
+
+        double adaptivePerDay = wakeups / (double) days;
+        long meanLag = totalLag / publishesSeen;
+        // 固定间隔为I的轮询，新数据平均要等I/2才被取到；达到同样的平均延迟需要I = 2 * meanLag
+        double fixedPerDay = DAY / (2.0 * meanLag);
+        assertTrue(String.format("adaptive: %.1f wakeups/day, mean lag %d min; "
+                        + "fixed polling with the same mean lag: %.1f wakeups/day",
+                adaptivePerDay, meanLag / MINUTE, fixedPerDay), adaptivePerDay < fixedPerDay);
+    }
+
+    @Test
+    public void simulatedOutage_backoffSavesWakeups() throws Exception {
+        long outage = 12 * HOUR;
+        int wakeups = 0;
+        int failures = 0;
+        now = dayStart;
+        while (now < dayStart + outage) {
+            wakeups++;
+            failures++;
+            now = policy.nextRefreshAt(-1, failures);
+        }
+        long fixedRetries = outage / RefreshPolicy.BACKOFF_BASE;
+        assertTrue("12h outage: " + wakeups + " wakeups with backoff, " + fixedRetries + " with a fixed "
+                + RefreshPolicy.BACKOFF_BASE / MINUTE + " min retry", wakeups < fixedRetries / 2);
+    }
+
+    private long latestPublishBefore(long time) {
+        long latest = -1;
+        for (long day = dayStart - DAY; day <= time; day += DAY) {
+            for (long offset : PUBLISH_OFFSETS) {
+                if (day + offset <= time) {
+                    latest = day + offset;
+                }
+            }
+        }
+        return latest;
+    }
+}
@@ -0,0 +1,70 @@
+package com.alo.coolweather.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 熔断器的状态转换，时间由测试给出
+ */
+public class CircuitBreakerTest {
+    private final HttpPolicy policy = HttpPolicy.DEFAULT.withCircuitBreaker(3, 1000);
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        breaker.recordFailure(0, policy);
+        breaker.recordFailure(0, policy);
+        breaker.recordSuccess();
+        breaker.recordFailure(0, policy);
+        breaker.recordFailure(0, policy);
+        assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(0, policy));
+
+        breaker.recordFailure(100, policy);
+        assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(500, policy));
+        assertFalse(breaker.allowRequest(1099, policy));
+    }
+
+    @Test
+    public void halfOpenAllowsSingleTrial() {
+        CircuitBreaker breaker = open();
+        assertTrue(breaker.allowRequest(1000, policy));
+        assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(1001, policy));
+
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(1002, policy));
+    }
+
+    @Test
+    public void failedTrialReopens() {
+        CircuitBreaker breaker = open();
+        assertTrue(breaker.allowRequest(1000, policy));
+        breaker.recordFailure(1200, policy);
+        assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(2100, policy));
+        assertTrue(breaker.allowRequest(2200, policy));
+    }
+
+    @Test
+    public void abandonedTrialExpires() {
+        CircuitBreaker breaker = open();
+        assertTrue(breaker.allowRequest(1000, policy));
+        // 试探请求没有报告结果，过了熔断时长后再放行一次
+        assertFalse(breaker.allowRequest(1999, policy));
+        assertTrue(breaker.allowRequest(2000, policy));
+    }
+
+    private CircuitBreaker open() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure(0, policy);
+        }
+        return breaker;
+    }
+}
@@ -0,0 +1,119 @@
+package com.alo.coolweather.util;
+
+import com.alo.coolweather.model.Weather;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 当前天气快照的发布规则和监听通知
+ */
+public class CurrentWeatherTest {
+
+    @After
+    public void tearDown() {
+        CurrentWeather.reset();
+    }
+
+    @Test
+    public void publishNotifiesListeners() {
+        final List<CurrentWeather.Snapshot> received = new ArrayList<>();
+        CurrentWeather.Listener listener = new CurrentWeather.Listener() {
+            @Override
+            public void onWeatherChanged(CurrentWeather.Snapshot snapshot) {
+                received.add(snapshot);
+            }
+        };
+        CurrentWeather.addListener(listener);
+        CurrentWeather.addListener(listener);
+        assertNull(CurrentWeather.get());
+
+        assertTrue(CurrentWeather.publish(weather("101190404", "21℃", 100)));
+        assertEquals(1, received.size());
+        assertEquals("21℃", CurrentWeather.get().getWeatherInfo().getTemp1());
+        assertEquals(21, CurrentWeather.get().getWeatherInfo().getTemp1Celsius());
+        assertEquals(100, CurrentWeather.get().getUpdatedAt());
+
+        CurrentWeather.removeListener(listener);
+        assertTrue(CurrentWeather.publish(weather("101190404", "22℃", 200)));
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    public void olderDataForSameCityIsIgnored() {
+        CurrentWeather.publish(weather("101190404", "21℃", 200));
+        assertFalse(CurrentWeather.publish(weather("101190404", "19℃", 100)));
+        assertEquals("21℃", CurrentWeather.get().getWeatherInfo().getTemp1());
+
+        // 换城市总是替换
+        assertTrue(CurrentWeather.publish(weather("101010100", "5℃", 50)));
+        assertEquals("101010100", CurrentWeather.get().getWeatherCode());
+    }
+
+    @Test
+    public void publishIfCurrentKeepsSelectedCity() {
+        assertTrue(CurrentWeather.publishIfCurrent(weather("101190404", "21℃", 100)));
+        assertFalse(CurrentWeather.publishIfCurrent(weather("101010100", "5℃", 200)));
+        assertTrue(CurrentWeather.publishIfCurrent(weather("101190404", "23℃", 300)));
+        assertEquals("23℃", CurrentWeather.get().getWeatherInfo().getTemp1());
+        assertFalse(CurrentWeather.publishIfCurrent(null));
+    }
+
+    @Test
+    public void concurrentPublishersKeepNewest() throws Exception {
+        final int threads = 4;
+        final int perThread = 2000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger published = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        if (CurrentWeather.publish(weather("101190404", "1℃", i * threads + offset))) {
+                            published.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * perThread - 1, CurrentWeather.get().getUpdatedAt());
+        assertTrue(published.get() >= perThread);
+    }
+
+    private static Weather weather(String weatherCode, String temp1, long updatedAt) {
+        Weather weather = new Weather();
+        weather.setWeatherCode(weatherCode);
+        weather.setCityName("昆山");
+        weather.setTemp1(temp1);
+        weather.setTemp2("9℃");
+        weather.setWeatherDesp("多云");
+        weather.setPublishTime("11:00");
+        weather.setUpdateDate("2017年1月3日");
+        weather.setUpdatedAt(updatedAt);
+        return weather;
+    }
+}
@@ -0,0 +1,100 @@
+package com.alo.coolweather.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 分桶的正确性、分位数误差以及并发记录不丢计数。多线程记录的耗时见benchmark模块的HistogramBenchmark。
+ */
+public class HistogramTest {
+
+    @Test
+    public void bucketsAreMonotonicAndContainTheirValues() throws Exception {
+        int previous = -1;
+        for (long value = 0; value < 1 << 20; value += 1 + value / 64) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue(bucket >= previous);
+            assertTrue(value + " in bucket " + bucket, value <= Histogram.highestValueOf(bucket));
+            if (bucket > 0) {
+                assertTrue(value > Histogram.highestValueOf(bucket - 1));
+            }
+            previous = bucket;
+        }
+        assertEquals(Histogram.MAX_VALUE, Histogram.highestValueOf(Histogram.bucketOf(Histogram.MAX_VALUE)));
+    }
+
+    @Test
+    public void quantilesWithinRelativeError() throws Exception {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100000, snapshot.count);
+        assertEquals(100000, snapshot.max);
+        assertEquals(50000.5, snapshot.getMean(), 0.01);
+        assertNear(50000, snapshot.getValueAtQuantile(0.5));
+        assertNear(99000, snapshot.getValueAtQuantile(0.99));
+        assertEquals(100000, snapshot.getValueAtQuantile(1.0));
+        assertEquals(1, snapshot.getValueAtQuantile(0));
+    }
+
+    @Test
+    public void smallValuesAreExact() throws Exception {
+        Histogram histogram = new Histogram();
+        histogram.record(3);
+        histogram.record(7);
+        histogram.record(-5);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getValueAtQuantile(0.3));
+        assertEquals(3, snapshot.getValueAtQuantile(0.5));
+        assertEquals(7, snapshot.getValueAtQuantile(0.99));
+        assertEquals(0, new Histogram().snapshot().getValueAtQuantile(0.5));
+    }
+
+    @Test
+    public void concurrentRecordingKeepsAllCounts() throws Exception {
+        final Histogram histogram = new Histogram();
+        final int threads = 8;
+        final int perThread = 50000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(random.nextInt(1000000));
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(threads * perThread, histogram.getCount());
+        assertEquals(threads * perThread, snapshot.count);
+        assertNear(500000, snapshot.getValueAtQuantile(0.5));
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / 16 + 1);
+    }
+}
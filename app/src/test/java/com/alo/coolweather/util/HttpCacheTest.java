@@ -0,0 +1,126 @@
+package com.alo.coolweather.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HttpCache与HttpUtil条件请求的测试，服务端为本机的StubHttpServer
+ */
+public class HttpCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubHttpServer server;
+    private volatile String body = "01|北京,02|上海";
+    private volatile String eTag = "\"v1\"";
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws Exception {
+                if (eTag.equals(request.header("If-None-Match"))) {
+                    return new StubHttpServer.Response(304, new byte[0]).header("ETag", eTag);
+                }
+                return StubHttpServer.Response.ok(body).header("ETag", eTag);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        HttpUtil.installCache(null);
+        server.close();
+    }
+
+    @Test
+    public void notModifiedResponsesAreServedFromCache() throws Exception {
+        HttpCache cache = new HttpCache(folder.newFolder("http"), 1024 * 1024);
+        HttpUtil.installCache(cache);
+        String url = server.url("/data/list3/city.xml");
+
+        assertEquals(body, fetch(url));
+        assertEquals(body, fetch(url));
+        assertEquals(body, fetch(url));
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getRevalidateCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void changedResourceReplacesCachedBody() throws Exception {
+        HttpCache cache = new HttpCache(folder.newFolder("http"), 1024 * 1024);
+        HttpUtil.installCache(cache);
+        String url = server.url("/data/list3/city01.xml");
+
+        fetch(url);
+        body = "0101|北京";
+        eTag = "\"v2\"";
+
+        assertEquals("0101|北京", fetch(url));
+        assertEquals(0, cache.getHitCount());
+        assertEquals("\"v2\"", cache.get(url).eTag);
+    }
+
+    @Test
+    public void entriesSurviveReopen() throws Exception {
+        File directory = folder.newFolder("http");
+        new HttpCache(directory, 1024 * 1024).put("http://a/1", new HttpCache.Entry("body", null, "Mon, 19 Dec 2016 08:00:00 GMT"));
+
+        HttpCache.Entry entry = new HttpCache(directory, 1024 * 1024).get("http://a/1");
+
+        assertNotNull(entry);
+        assertEquals("body", entry.body);
+        assertNull(entry.eTag);
+        assertEquals("Mon, 19 Dec 2016 08:00:00 GMT", entry.lastModified);
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws Exception {
+        HttpCache cache = new HttpCache(folder.newFolder("http"), 3000);
+        String payload = new String(new char[900]).replace('\0', 'x');
+
+        cache.put("http://a/1", new HttpCache.Entry(payload, "1", null));
+        cache.put("http://a/2", new HttpCache.Entry(payload, "2", null));
+        cache.put("http://a/3", new HttpCache.Entry(payload, "3", null));
+        cache.get("http://a/1");
+        cache.put("http://a/4", new HttpCache.Entry(payload, "4", null));
+
+        assertNotNull(cache.get("http://a/1"));
+        assertNull(cache.get("http://a/2"));
+        assertNotNull(cache.get("http://a/4"));
+        assertTrue(cache.getSize() <= 3000);
+    }
+
+    private static String fetch(String url) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final String[] result = new String[1];
+        HttpUtil.sendHttpRequest(url, new HttpCallbackListener() {
+            @Override
+            public void onFinish(String response) {
+                result[0] = response;
+                done.countDown();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        return result[0];
+    }
+}
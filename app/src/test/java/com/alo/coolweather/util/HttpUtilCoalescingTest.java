@@ -0,0 +1,98 @@
+package com.alo.coolweather.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 同一地址并发请求的合并测试
+ */
+public class HttpUtilCoalescingTest {
+    private StubHttpServer server;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws Exception {
+                // 等所有调用方都发起请求后再返回，保证它们确实是并发的
+                release.await(5, TimeUnit.SECONDS);
+                return StubHttpServer.Response.ok("01|北京,02|上海");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        server.close();
+    }
+
+    @Test
+    public void concurrentRequestsForSameAddressShareOneCall() throws Exception {
+        final String url = server.url("/data/list3/city.xml");
+        final List<String> responses = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(6);
+        long coalescedBefore = HttpUtil.getCoalescedCount();
+
+        for (int i = 0; i < 5; i++) {
+            HttpUtil.sendHttpRequest(url, new HttpCallbackListener() {
+                @Override
+                public void onFinish(String response) {
+                    responses.add(response);
+                    done.countDown();
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    done.countDown();
+                }
+            });
+        }
+        Thread syncCaller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    responses.add(HttpUtil.get(url));
+                } catch (Exception ignored) {
+                }
+                done.countDown();
+            }
+        });
+        syncCaller.start();
+        while (HttpUtil.getCoalescedCount() - coalescedBefore < 5) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(6, responses.size());
+        for (String response : responses) {
+            assertSame(responses.get(0), response);
+        }
+        assertEquals(5, HttpUtil.getCoalescedCount() - coalescedBefore);
+    }
+
+    @Test
+    public void laterRequestsAfterCompletionHitTheNetworkAgain() throws Exception {
+        release.countDown();
+        String url = server.url("/data/list3/city01.xml");
+
+        HttpUtil.get(url);
+        HttpUtil.get(url);
+
+        assertEquals(2, server.getRequestCount());
+    }
+}
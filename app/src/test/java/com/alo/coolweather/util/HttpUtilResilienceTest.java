@@ -0,0 +1,168 @@
+package com.alo.coolweather.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 重试、总时限和熔断的测试。StubHttpServer按预设的顺序注入故障：返回错误码、断开连接或延迟响应。
+ */
+public class HttpUtilResilienceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 依次使用的故障，用完后正常返回
+     */
+    private final ConcurrentLinkedQueue<String> faults = new ConcurrentLinkedQueue<>();
+    private volatile boolean down;
+    private StubHttpServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws Exception {
+                String fault = down ? "503" : faults.poll();
+                if (fault == null) {
+                    return StubHttpServer.Response.ok("01|北京").header("ETag", "\"v1\"");
+                }
+                if (fault.equals("drop")) {
+                    return null;
+                }
+                if (fault.startsWith("slow")) {
+                    Thread.sleep(Long.parseLong(fault.substring(4)));
+                    return StubHttpServer.Response.ok("01|北京");
+                }
+                return new StubHttpServer.Response(Integer.parseInt(fault), new byte[0]);
+            }
+        });
+        HttpUtil.resetCircuitBreakers();
+        HttpUtil.setPolicy(HttpPolicy.DEFAULT.withRetries(3, 10, 50));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        HttpUtil.setPolicy(HttpPolicy.DEFAULT);
+        HttpUtil.installCache(null);
+        HttpUtil.resetCircuitBreakers();
+        server.close();
+    }
+
+    @Test
+    public void transientFailuresAreRetried() throws Exception {
+        faults.add("503");
+        faults.add("drop");
+        assertEquals("01|北京", HttpUtil.get(server.url("/data/list3/city.xml")));
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() throws Exception {
+        faults.add("404");
+        try {
+            HttpUtil.get(server.url("/data/list3/city99.xml"));
+            fail();
+        } catch (HttpUtil.StatusException e) {
+            assertEquals(404, e.code);
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            faults.add("500");
+        }
+        try {
+            HttpUtil.get(server.url("/data/list3/city.xml"));
+            fail();
+        } catch (HttpUtil.StatusException e) {
+            assertEquals(500, e.code);
+        }
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void deadlineBoundsTheWholeCall() throws Exception {
+        HttpUtil.setPolicy(HttpUtil.getPolicy().withTimeouts(5000, 5000, 300));
+        faults.add("slow2000");
+        long start = System.nanoTime();
+        try {
+            HttpUtil.get(server.url("/data/list3/city.xml"));
+            fail();
+        } catch (SocketTimeoutException expected) {
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 1500);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void openCircuitFailsFastAndMarksCacheAsStale() throws Exception {
+        HttpUtil.installCache(new HttpCache(folder.newFolder("http"), 1024 * 1024));
+        HttpUtil.setPolicy(HttpUtil.getPolicy().withRetries(1, 0, 0).withCircuitBreaker(2, 60000));
+        String cached = server.url("/data/list3/city.xml");
+        String uncached = server.url("/data/list3/city01.xml");
+        assertEquals("01|北京", HttpUtil.get(cached));
+
+        down = true;
+        expectFailure(uncached);
+        // 第二次失败打开熔断，有缓存的地址仍然失败，但带上缓存内容
+        expectStale(cached);
+        String host = cached.substring("http://".length(), cached.indexOf("/data"));
+        assertEquals(CircuitBreaker.OPEN, HttpUtil.getCircuitState(host));
+
+        int requests = server.getRequestCount();
+        expectStale(cached);
+        assertEquals("01|北京", HttpUtil.getAllowingStale(cached));
+        try {
+            HttpUtil.get(uncached);
+            fail();
+        } catch (HttpUtil.CircuitOpenException expected) {
+        }
+        assertEquals(requests, server.getRequestCount());
+    }
+
+    @Test
+    public void halfOpenTrialClosesCircuit() throws Exception {
+        HttpUtil.setPolicy(HttpUtil.getPolicy().withRetries(1, 0, 0).withCircuitBreaker(1, 100));
+        String url = server.url("/data/list3/city.xml");
+        String host = url.substring("http://".length(), url.indexOf("/data"));
+        down = true;
+        expectFailure(url);
+        assertEquals(CircuitBreaker.OPEN, HttpUtil.getCircuitState(host));
+
+        down = false;
+        Thread.sleep(150);
+        assertEquals("01|北京", HttpUtil.get(url));
+        assertEquals(CircuitBreaker.CLOSED, HttpUtil.getCircuitState(host));
+    }
+
+    private static void expectStale(String url) throws IOException {
+        try {
+            HttpUtil.get(url);
+            fail();
+        } catch (HttpUtil.StaleResponseException expected) {
+            assertEquals("01|北京", expected.body);
+        }
+    }
+
+    private static void expectFailure(String url) {
+        try {
+            HttpUtil.get(url);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
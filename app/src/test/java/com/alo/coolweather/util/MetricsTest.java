@@ -0,0 +1,44 @@
+package com.alo.coolweather.util;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 注册表按名称返回同一实例，快照输出为合法JSON。
+ */
+public class MetricsTest {
+
+    @Test
+    public void sameNameReturnsSameInstance() throws Exception {
+        assertSame(Metrics.counter("test.same"), Metrics.counter("test.same"));
+        assertSame(Metrics.histogram("test.same_us"), Metrics.histogram("test.same_us"));
+    }
+
+    @Test
+    public void snapshotIsValidJson() throws Exception {
+        Metrics.counter("test.json.counter").add(3);
+        Metrics.gauge("test.json.gauge", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return 42;
+            }
+        });
+        Histogram histogram = Metrics.histogram("test.json\"quoted_us");
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        JSONObject json = new JSONObject(Metrics.toJson());
+        assertEquals(3, json.getJSONObject("counters").getLong("test.json.counter"));
+        assertEquals(42, json.getJSONObject("gauges").getLong("test.json.gauge"));
+        JSONObject snapshot = json.getJSONObject("histograms").getJSONObject("test.json\"quoted_us");
+        assertEquals(100, snapshot.getLong("count"));
+        assertEquals(100, snapshot.getLong("max"));
+        // 分位数报告所在桶的上界，50落在[50, 51]这个桶中
+        assertEquals(51, snapshot.getLong("p50"));
+        assertEquals(99, snapshot.getLong("p99"));
+    }
+}
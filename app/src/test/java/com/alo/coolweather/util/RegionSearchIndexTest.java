@@ -0,0 +1,88 @@
+package com.alo.coolweather.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 前缀搜索的正确性和增量更新。全国规模下的建立和查询耗时见benchmark模块的RegionSearchBenchmark。
+ */
+public class RegionSearchIndexTest {
+
+    @Test
+    public void matchesNamePrefixAndCode() throws Exception {
+        RegionSearchIndex index = RegionSearchIndex.build(sample(), null);
+
+        List<RegionSearchIndex.Region> result = index.search("朝", 10);
+        assertEquals(1, result.size());
+        assertEquals("朝阳", result.get(0).getName());
+        assertEquals("北京", result.get(0).getParentName());
+
+        result = index.search("0101", 10);
+        assertEquals(3, result.size());
+        assertEquals("0101", result.get(0).getCode());
+
+        assertEquals(2, index.search("北京", 10).size());
+        assertEquals(0, index.search("广州", 10).size());
+        assertEquals(0, index.search("  ", 10).size());
+    }
+
+    @Test
+    public void limitsResultsAndSkipsDuplicateRegions() throws Exception {
+        List<RegionSearchIndex.Region> regions = new ArrayList<>();
+        regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_PROVINCE, 1, 0, "01", "01"));
+        for (int i = 0; i < 20; i++) {
+            regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_CITY, 100 + i, 1, "城" + i, "01" + i));
+        }
+        RegionSearchIndex index = RegionSearchIndex.build(regions, null);
+
+        assertEquals(5, index.search("城", 5).size());
+        // 名称与代号相同的省只出现一次
+        assertEquals(1, index.search("01", 1).size());
+        assertEquals(RegionSearchIndex.LEVEL_PROVINCE, index.search("01", 1).get(0).getLevel());
+    }
+
+    @Test
+    public void plusAddsOnlyNewRegions() throws Exception {
+        RegionSearchIndex index = RegionSearchIndex.build(sample(), null);
+        int size = index.size();
+
+        RegionSearchIndex same = index.plus(sample());
+        assertSame(index, same);
+
+        RegionSearchIndex grown = index.plus(Arrays.asList(
+                new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_COUNTY, 103, 11, "东城", "010103")));
+        assertEquals(size + 1, grown.size());
+        assertEquals("北京", grown.search("东城", 1).get(0).getParentName());
+        assertEquals(0, index.search("东城", 1).size());
+        assertNull(index.find(RegionSearchIndex.LEVEL_COUNTY, 103));
+    }
+
+    @Test
+    public void extraKeysFromKeyProvider() throws Exception {
+        RegionSearchIndex index = RegionSearchIndex.build(sample(), new RegionSearchIndex.KeyProvider() {
+            @Override
+            public String[] keysFor(String name) {
+                return "海淀".equals(name) ? new String[]{"HaiDian", "hd"} : null;
+            }
+        });
+        assertEquals("海淀", index.search("haid", 5).get(0).getName());
+        assertEquals("海淀", index.search("HD", 5).get(0).getName());
+    }
+
+    private static List<RegionSearchIndex.Region> sample() {
+        List<RegionSearchIndex.Region> regions = new ArrayList<>();
+        regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_PROVINCE, 1, 0, "北京", "01"));
+        regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_CITY, 11, 1, "北京", "0101"));
+        regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_CITY, 12, 1, "海淀", "0102"));
+        regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_COUNTY, 101, 11, "朝阳", "010101"));
+        regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_COUNTY, 102, 11, "丰台", "010102"));
+        return regions;
+    }
+}
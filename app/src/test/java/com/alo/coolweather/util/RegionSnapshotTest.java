@@ -0,0 +1,152 @@
+package com.alo.coolweather.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 快照写出、映射读取的往返测试。遍历时的耗时和内存分配见benchmark模块的RegionSnapshotBenchmark。
+ */
+public class RegionSnapshotTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("regions", ".snapshot");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void roundTripKeepsHierarchyAndOrder() throws Exception {
+        new RegionSnapshot.Writer()
+                .addProvince(2, "上海", "02")
+                .addProvince(1, "北京", "01")
+                .addCity(11, 1, "北京", "0101")
+                .addCity(21, 2, "上海", "0201")
+                .addCity(12, 1, "海淀", "0102")
+                .addCounty(102, 11, "朝阳", "010102")
+                .addCounty(101, 11, "北京", "010101")
+                .writeTo(file);
+
+        RegionSnapshot snapshot = RegionSnapshot.open(file);
+        assertEquals(2, snapshot.getCount(RegionSnapshot.LEVEL_PROVINCE));
+        assertEquals(3, snapshot.getCount(RegionSnapshot.LEVEL_CITY));
+        assertEquals(2, snapshot.getCount(RegionSnapshot.LEVEL_COUNTY));
+
+        int beijing = snapshot.indexOf(RegionSnapshot.LEVEL_PROVINCE, 1);
+        assertEquals("北京", snapshot.getName(RegionSnapshot.LEVEL_PROVINCE, beijing));
+        assertEquals("01", snapshot.getCode(RegionSnapshot.LEVEL_PROVINCE, beijing));
+        assertEquals(-1, snapshot.getParent(RegionSnapshot.LEVEL_PROVINCE, beijing));
+        assertEquals(2, snapshot.getChildCount(RegionSnapshot.LEVEL_PROVINCE, beijing));
+
+        int first = snapshot.getChild(RegionSnapshot.LEVEL_PROVINCE, beijing, 0);
+        int second = snapshot.getChild(RegionSnapshot.LEVEL_PROVINCE, beijing, 1);
+        assertEquals(11, snapshot.getId(RegionSnapshot.LEVEL_CITY, first));
+        assertEquals(12, snapshot.getId(RegionSnapshot.LEVEL_CITY, second));
+        assertEquals("海淀", snapshot.getName(RegionSnapshot.LEVEL_CITY, second));
+        assertEquals(beijing, snapshot.getParent(RegionSnapshot.LEVEL_CITY, second));
+
+        assertEquals(2, snapshot.getChildCount(RegionSnapshot.LEVEL_CITY, first));
+        int county = snapshot.getChild(RegionSnapshot.LEVEL_CITY, first, 0);
+        assertEquals(101, snapshot.getId(RegionSnapshot.LEVEL_COUNTY, county));
+        assertEquals("010101", snapshot.getCode(RegionSnapshot.LEVEL_COUNTY, county));
+        assertEquals(0, snapshot.getChildCount(RegionSnapshot.LEVEL_COUNTY, county));
+
+        assertEquals(-1, snapshot.indexOf(RegionSnapshot.LEVEL_CITY, 99));
+    }
+
+    @Test
+    public void orphansAndDuplicateIdsAreDropped() throws Exception {
+        new RegionSnapshot.Writer()
+                .addProvince(1, "北京", "01")
+                .addCity(11, 1, "北京", "0101")
+                .addCity(11, 1, "重复", "0101")
+                .addCity(31, 3, "孤儿", "0301")
+                .addCounty(301, 31, "孤儿的县", "030101")
+                .writeTo(file);
+
+        RegionSnapshot snapshot = RegionSnapshot.open(file);
+        assertEquals(1, snapshot.getCount(RegionSnapshot.LEVEL_CITY));
+        assertEquals(0, snapshot.getCount(RegionSnapshot.LEVEL_COUNTY));
+    }
+
+    @Test
+    public void repeatedStringsAreStoredOnce() throws Exception {
+        RegionSnapshot.Writer unique = new RegionSnapshot.Writer();
+        RegionSnapshot.Writer repeated = new RegionSnapshot.Writer();
+        unique.addProvince(1, "省份", "01");
+        repeated.addProvince(1, "省份", "01");
+        for (int i = 0; i < 100; i++) {
+            unique.addCity(10 + i, 1, "城市" + i, "01" + i);
+            repeated.addCity(10 + i, 1, "城区", "01" + i);
+        }
+        assertTrue(repeated.toByteBuffer().remaining() < unique.toByteBuffer().remaining());
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[64]);
+        out.close();
+        try {
+            RegionSnapshot.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void traversalAtCountryScaleVisitsEveryRegion() throws Exception {
+        RegionSnapshot.Writer writer = new RegionSnapshot.Writer();
+        int cityId = 1000;
+        int countyId = 100000;
+        for (int p = 1; p <= 34; p++) {
+            writer.addProvince(p, "省份" + p, String.format("%02d", p));
+            for (int c = 0; c < 12; c++, cityId++) {
+                writer.addCity(cityId, p, "城市" + c, "c" + cityId);
+                for (int k = 0; k < 7; k++, countyId++) {
+                    writer.addCounty(countyId, cityId, "区县" + k, "k" + countyId);
+                }
+            }
+        }
+        writer.writeTo(file);
+        RegionSnapshot snapshot = RegionSnapshot.open(file);
+
+        assertEquals(34, snapshot.getCount(RegionSnapshot.LEVEL_PROVINCE));
+        assertEquals(34 * 12, snapshot.getCount(RegionSnapshot.LEVEL_CITY));
+        assertEquals(34 * 12 * 7, snapshot.getCount(RegionSnapshot.LEVEL_COUNTY));
+        // 省名“省份1”到“省份34”，市名“城市0”到“城市11”，县名“区县0”到“区县6”
+        int provinceChars = 9 * 3 + 25 * 4;
+        int cityChars = 34 * (10 * 3 + 2 * 4);
+        int countyChars = 34 * 12 * 7 * 3;
+        assertEquals(provinceChars + cityChars + countyChars, traverse(snapshot, new char[64]));
+    }
+
+    private static int traverse(RegionSnapshot snapshot, char[] name) {
+        int chars = 0;
+        for (int p = 0; p < snapshot.getCount(RegionSnapshot.LEVEL_PROVINCE); p++) {
+            chars += snapshot.copyName(RegionSnapshot.LEVEL_PROVINCE, p, name, 0);
+            for (int c = 0; c < snapshot.getChildCount(RegionSnapshot.LEVEL_PROVINCE, p); c++) {
+                int city = snapshot.getChild(RegionSnapshot.LEVEL_PROVINCE, p, c);
+                chars += snapshot.copyName(RegionSnapshot.LEVEL_CITY, city, name, 0);
+                for (int k = 0; k < snapshot.getChildCount(RegionSnapshot.LEVEL_CITY, city); k++) {
+                    int county = snapshot.getChild(RegionSnapshot.LEVEL_CITY, city, k);
+                    chars += snapshot.copyName(RegionSnapshot.LEVEL_COUNTY, county, name, 0);
+                }
+            }
+        }
+        return chars;
+    }
+}
@@ -0,0 +1,74 @@
+package com.alo.coolweather.util;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * RegionTokenizer的正确性测试，与String.split的吞吐量对比见benchmark模块的RegionParseBenchmark
+ */
+public class RegionTokenizerTest {
+    private static final int ROWS = 20000;
+
+    @Test
+    public void tokenize_emitsCodeAndNamePairs() throws Exception {
+        List<String> rows = new ArrayList<>();
+        RegionTokenizer tokenizer = new RegionTokenizer();
+
+        assertEquals(3, tokenizer.tokenize("01|北京,02|上海, 03|天津\n", collect(rows)));
+        assertEquals("01=北京", rows.get(0));
+        assertEquals("02=上海", rows.get(1));
+        assertEquals("03=天津", rows.get(2));
+        assertEquals(0, tokenizer.getBadRowCount());
+    }
+
+    @Test
+    public void tokenize_skipsAndCountsMalformedRows() throws Exception {
+        List<String> rows = new ArrayList<>();
+        RegionTokenizer tokenizer = new RegionTokenizer();
+
+        int count = tokenizer.tokenize("01|北京,02,|上海,03|,04|a|b,,05|天津", collect(rows));
+
+        assertEquals(2, count);
+        assertEquals(4, tokenizer.getBadRowCount());
+        assertEquals("05=天津", rows.get(1));
+    }
+
+    @Test
+    public void tokenize_readerMatchesCharSequence() throws Exception {
+        String input = syntheticInput(ROWS);
+        List<String> fromString = new ArrayList<>();
+        List<String> fromReader = new ArrayList<>();
+        RegionTokenizer tokenizer = new RegionTokenizer();
+
+        tokenizer.tokenize(input, collect(fromString));
+        tokenizer.tokenize(new StringReader(input), collect(fromReader));
+
+        assertEquals(ROWS, fromString.size());
+        assertEquals(fromString, fromReader);
+    }
+
+    private static String syntheticInput(int rows) {
+        StringBuilder builder = new StringBuilder(rows * 12);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(String.format("%06d", i)).append('|').append("县城").append(i);
+        }
+        return builder.toString();
+    }
+
+    private static RegionTokenizer.Callback collect(final List<String> rows) {
+        return new RegionTokenizer.Callback() {
+            @Override
+            public void onRegion(String code, String name) {
+                rows.add(code + "=" + name);
+            }
+        };
+    }
+}
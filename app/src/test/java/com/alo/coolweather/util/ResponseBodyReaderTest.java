@@ -0,0 +1,101 @@
+package com.alo.coolweather.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ResponseBodyReader的完整读取、字符集、gzip与大小限制测试
+ */
+public class ResponseBodyReaderTest {
+
+    @Test
+    public void read_returnsWholeBodyAcrossShortReads() throws Exception {
+        String body = regionList(5000);
+        InputStream in = new TrickleInputStream(body.getBytes("UTF-8"), 100);
+
+        assertEquals(body, ResponseBodyReader.read(in, "text/plain", null, ResponseBodyReader.DEFAULT_MAX_BODY_BYTES));
+    }
+
+    @Test
+    public void read_honoursContentTypeCharset() throws Exception {
+        String body = "01|北京,02|上海";
+        InputStream in = new ByteArrayInputStream(body.getBytes("GBK"));
+
+        assertEquals(body, ResponseBodyReader.read(in, "text/html; charset=\"GBK\"", null, 1024));
+    }
+
+    @Test
+    public void read_defaultsToUtf8() throws Exception {
+        String body = "01|北京";
+        InputStream in = new ByteArrayInputStream(body.getBytes("UTF-8"));
+
+        assertEquals(body, ResponseBodyReader.read(in, "text/html; charset=no-such-charset", null, 1024));
+        in = new ByteArrayInputStream(body.getBytes("UTF-8"));
+        assertEquals(body, ResponseBodyReader.read(in, null, null, 1024));
+    }
+
+    @Test
+    public void read_decompressesGzip() throws Exception {
+        String body = regionList(3000);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(body.getBytes("UTF-8"));
+        gzip.close();
+
+        InputStream in = new ByteArrayInputStream(compressed.toByteArray());
+        assertEquals(body, ResponseBodyReader.read(in, "text/plain; charset=utf-8", "gzip",
+                ResponseBodyReader.DEFAULT_MAX_BODY_BYTES));
+    }
+
+    @Test
+    public void read_acceptsBodyOfExactlyMaxBytes() throws Exception {
+        byte[] body = new byte[20000];
+        Arrays.fill(body, (byte) 'a');
+
+        assertEquals(20000, ResponseBodyReader.read(new ByteArrayInputStream(body), null, null, 20000).length());
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsBodyOverLimit() throws Exception {
+        byte[] body = new byte[20001];
+        ResponseBodyReader.read(new ByteArrayInputStream(body), null, null, 20000);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsBodyOverSmallLimit() throws Exception {
+        ResponseBodyReader.read(new ByteArrayInputStream(new byte[100]), null, null, 10);
+    }
+
+    private static String regionList(int rows) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            builder.append(i == 0 ? "" : ",").append(i).append("|城市").append(i);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 每次最多只返回chunk个字节，模拟网络流的分段到达
+     */
+    private static class TrickleInputStream extends ByteArrayInputStream {
+        private final int chunk;
+
+        TrickleInputStream(byte[] bytes, int chunk) {
+            super(bytes);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, chunk));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.alo.coolweather.util;
+
+import com.alo.coolweather.model.County;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 不依赖Android框架的解析方法
+ */
+public class UtilityTest {
+
+    @Test
+    public void parseWeatherCode() throws Exception {
+        assertEquals("101010300", Utility.parseWeatherCode("010101|101010300"));
+        assertEquals("101010300", Utility.parseWeatherCode("010101|101010300\n"));
+        assertNull(Utility.parseWeatherCode("010101"));
+        assertNull(Utility.parseWeatherCode("010101|"));
+        assertNull(Utility.parseWeatherCode("01|北京,02|上海"));
+        assertNull(Utility.parseWeatherCode(null));
+    }
+
+    @Test
+    public void parseCounties() throws Exception {
+        List<County> counties = Utility.parseCounties("010101|朝阳,010102|海淀", 7);
+        assertEquals(2, counties.size());
+        assertEquals("海淀", counties.get(1).getCountyName());
+        assertEquals("010102", counties.get(1).getCountyCode());
+        assertEquals(7, counties.get(1).getCityId());
+        assertEquals(0, Utility.parseCounties("", 7).size());
+    }
+}
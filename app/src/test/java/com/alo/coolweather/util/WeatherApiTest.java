@@ -0,0 +1,33 @@
+package com.alo.coolweather.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 接口地址的拼接和基础地址的替换
+ */
+public class WeatherApiTest {
+
+    @After
+    public void tearDown() {
+        WeatherApi.setBaseUrl(null);
+    }
+
+    @Test
+    public void defaultUrlsMatchServer() {
+        assertEquals("http://www.weather.com.cn/data/list3/city.xml", WeatherApi.regionUrl(null));
+        assertEquals("http://www.weather.com.cn/data/list3/city.xml", WeatherApi.regionUrl(""));
+        assertEquals("http://www.weather.com.cn/data/list3/city1901.xml", WeatherApi.regionUrl("1901"));
+        assertEquals("http://www.weather.com.cn/data/cityinfo/101190404.html", WeatherApi.weatherUrl("101190404"));
+    }
+
+    @Test
+    public void baseUrlCanBeReplaced() {
+        WeatherApi.setBaseUrl("http://127.0.0.1:8080/data");
+        assertEquals("http://127.0.0.1:8080/data/list3/city19.xml", WeatherApi.regionUrl("19"));
+        WeatherApi.setBaseUrl("");
+        assertEquals(WeatherApi.DEFAULT_BASE_URL, WeatherApi.getBaseUrl());
+    }
+}
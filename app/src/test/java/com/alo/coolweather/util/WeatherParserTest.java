@@ -0,0 +1,67 @@
+package com.alo.coolweather.util;
+
+import com.alo.coolweather.model.WeatherInfo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 流式天气解析：正常响应、未知字段、缺字段和非法JSON
+ */
+public class WeatherParserTest {
+    private static final String RESPONSE = "{\"weatherinfo\":{\"city\":\"昆山\",\"cityid\":\"101190404\","
+            + "\"temp1\":\"21℃\",\"temp2\":\"-3℃\",\"weather\":\"多云转小雨\",\"img1\":\"d1.gif\","
+            + "\"img2\":\"n7.gif\",\"ptime\":\"11:00\"}}";
+
+    @Test
+    public void parsesWeatherInfo() throws Exception {
+        WeatherParser.Result result = WeatherParser.parse(RESPONSE);
+        assertTrue(result.isSuccess());
+        WeatherInfo info = result.getWeatherInfo();
+        assertEquals("101190404", info.getWeatherCode());
+        assertEquals("昆山", info.getCityName());
+        assertEquals("21℃", info.getTemp1());
+        assertEquals(21, info.getTemp1Celsius());
+        assertEquals(-3, info.getTemp2Celsius());
+        assertEquals("多云转小雨", info.getWeatherDesp());
+        assertEquals("11:00", info.getPublishTime());
+    }
+
+    @Test
+    public void skipsUnknownAndNestedFields() throws Exception {
+        String response = "{\"status\":{\"code\":0,\"list\":[1,2,{\"a\":null}]},\"weatherinfo\":{\"city\":\"北京\","
+                + "\"cityid\":101010100,\"extra\":{\"x\":[true]},\"temp1\":\"5℃\",\"temp2\":\"0℃\","
+                + "\"weather\":\"晴\",\"ptime\":\"08:00\",\"img1\":null},\"trailer\":[]}";
+        WeatherParser.Result result = WeatherParser.parse(response);
+        assertTrue(result.toString(), result.isSuccess());
+        assertEquals("101010100", result.getWeatherInfo().getWeatherCode());
+        assertEquals(0, result.getWeatherInfo().getTemp2Celsius());
+    }
+
+    @Test
+    public void reportsErrors() throws Exception {
+        assertError("empty response", WeatherParser.parse(""));
+        assertError("missing weatherinfo", WeatherParser.parse("{\"status\":1}"));
+        assertError("missing field ptime", WeatherParser.parse(
+                "{\"weatherinfo\":{\"city\":\"昆山\",\"cityid\":\"1\",\"temp1\":\"1℃\",\"temp2\":\"2℃\",\"weather\":\"晴\"}}"));
+        assertFalse(WeatherParser.parse("{\"weatherinfo\":").isSuccess());
+        assertFalse(WeatherParser.parse("[1,2]").isSuccess());
+        assertFalse(WeatherParser.parse("<html>502</html>").isSuccess());
+    }
+
+    @Test
+    public void unparsableTemperatureIsUnknown() throws Exception {
+        WeatherParser.Result result = WeatherParser.parse(RESPONSE.replace("21℃", "N/A"));
+        assertTrue(result.isSuccess());
+        assertEquals(WeatherInfo.UNKNOWN_TEMPERATURE, result.getWeatherInfo().getTemp1Celsius());
+        assertEquals("N/A", result.getWeatherInfo().getTemp1());
+    }
+
+    private static void assertError(String expected, WeatherParser.Result result) {
+        assertFalse(result.isSuccess());
+        assertEquals(expected, result.getError());
+    }
+}
@@ -0,0 +1,85 @@
+package com.alo.coolweather.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * WorkerPool线程数、队列上限与关闭行为测试
+ */
+public class WorkerPoolTest {
+
+    @Test
+    public void threadCountStaysFlatUnderLoad() throws Exception {
+        WorkerPool pool = new WorkerPool("test", 2, 1000);
+        final CountDownLatch done = new CountDownLatch(500);
+        for (int i = 0; i < 500; i++) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        WorkerPool.Stats stats = pool.getStats();
+        assertTrue(stats.largestPoolSize <= 2);
+        assertEquals(500, stats.completedCount);
+        assertEquals(0, stats.rejectedCount);
+    }
+
+    @Test
+    public void rejectsWhenQueueIsFull() throws Exception {
+        WorkerPool pool = new WorkerPool("test", 1, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        pool.execute(blocker);
+        // 等第一个任务真正开始执行，保证它占着线程、第二个任务留在队列中
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        pool.execute(blocker);
+        try {
+            pool.execute(blocker);
+            fail("expected rejection");
+        } catch (RejectedExecutionException expected) {
+        }
+        WorkerPool.Stats stats = pool.getStats();
+        assertEquals(1, stats.activeCount);
+        assertEquals(1, stats.queuedCount);
+        assertEquals(1, stats.rejectedCount);
+
+        release.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, pool.getStats().completedCount);
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectsAfterShutdown() throws Exception {
+        WorkerPool pool = new WorkerPool("test", 1, 1);
+        pool.shutdown();
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+}
@@ -0,0 +1,43 @@
+package com.alo.coolweather.benchmark;
+
+import com.alo.coolweather.util.Histogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个线程同时向同一个Histogram记录时每次record的耗时，对比单线程，用来确认原子加的竞争不会让热路径变慢太多。
+ * Created by alo on 2016/12/31.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistogramBenchmark {
+    private final Histogram histogram = new Histogram();
+
+    @Benchmark
+    @Threads(1)
+    public void recordSingleThread() {
+        histogram.record(ThreadLocalRandom.current().nextInt(1000000));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void recordEightThreads() {
+        histogram.record(ThreadLocalRandom.current().nextInt(1000000));
+    }
+}
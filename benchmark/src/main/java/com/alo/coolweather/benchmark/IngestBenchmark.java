@@ -0,0 +1,276 @@
+package com.alo.coolweather.benchmark;
+
+import com.alo.coolweather.db.CoolWeatherOpenHelper;
+import com.alo.coolweather.model.County;
+import com.alo.coolweather.util.Utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 县级数据的解析加入库。JVM上没有android.database，这里通过sqlite-jdbc使用同一份建表语句和索引，
+ * 按CoolWeatherDB.syncRegions的方式（单事务、读出该上级现有的行后逐行比较，只插入、改名、移动或删除有变化的行）
+ * 写入临时文件数据库，分三种情况：
+ * <ul>
+ * <li>initialSync：空表，全部插入</li>
+ * <li>repeatSyncUnchanged：表中已是同样的数据，只读不写</li>
+ * <li>smallDeltaSync：约1%的行改名，外加一行新增、一行删除</li>
+ * </ul>
+ * 以及最初逐行自动提交的写法作为对照。
+ * Created by alo on 2016/12/30.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+    private static final int CITY_ID = 1;
+
+    /**
+     * 每次调用都从空表开始
+     */
+    @State(Scope.Benchmark)
+    public static class EmptyDatabase {
+        @Param({"34", "400", "2600"})
+        public int rows;
+
+        String response;
+        File file;
+        Connection connection;
+
+        @Setup(Level.Trial)
+        public void setUpTrial() throws IOException {
+            response = Responses.regions(rows);
+            file = File.createTempFile("cool_weather_bench", ".db");
+        }
+
+        @Setup(Level.Invocation)
+        public void setUpInvocation() throws SQLException {
+            file.delete();
+            connection = open(file);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDownInvocation() throws SQLException {
+            connection.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDownTrial() {
+            file.delete();
+        }
+    }
+
+    /**
+     * 表中已经同步过response，调用之间保留数据
+     */
+    @State(Scope.Benchmark)
+    public static class SyncedDatabase {
+        @Param({"34", "400", "2600"})
+        public int rows;
+
+        String response;
+        /**
+         * 与response相比有少量改动，smallDeltaSync在两者之间来回切换，每次调用的改动量相同
+         */
+        List<County> changed;
+        boolean atChanged;
+        File file;
+        Connection connection;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, SQLException {
+            response = Responses.regions(rows);
+            changed = Utility.parseCounties(response, CITY_ID);
+            for (int i = 0; i < changed.size(); i += 100) {
+                changed.get(i).setCountyName(changed.get(i).getCountyName() + "新");
+            }
+            changed.remove(changed.size() - 1);
+            County added = new County();
+            added.setCountyCode("999999");
+            added.setCountyName("新区");
+            added.setCityId(CITY_ID);
+            changed.add(added);
+
+            file = File.createTempFile("cool_weather_bench", ".db");
+            file.delete();
+            connection = open(file);
+            sync(connection, Utility.parseCounties(response, CITY_ID), CITY_ID);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws SQLException {
+            connection.close();
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public int initialSync(EmptyDatabase state) throws SQLException {
+        return sync(state.connection, Utility.parseCounties(state.response, CITY_ID), CITY_ID);
+    }
+
+    @Benchmark
+    public int repeatSyncUnchanged(SyncedDatabase state) throws SQLException {
+        return sync(state.connection, Utility.parseCounties(state.response, CITY_ID), CITY_ID);
+    }
+
+    @Benchmark
+    public int smallDeltaSync(SyncedDatabase state) throws SQLException {
+        List<County> counties = state.atChanged ? Utility.parseCounties(state.response, CITY_ID) : state.changed;
+        state.atChanged = !state.atChanged;
+        return sync(state.connection, counties, CITY_ID);
+    }
+
+    /**
+     * 最初的saveCounty：每行单独插入并自动提交一次
+     */
+    @Benchmark
+    public int rowByRowAutoCommit(EmptyDatabase state) throws SQLException {
+        List<County> counties = Utility.parseCounties(state.response, CITY_ID);
+        int total = 0;
+        for (County county : counties) {
+            PreparedStatement insert = state.connection.prepareStatement(
+                    "insert into County (county_name, county_code, city_id) values (?, ?, ?)");
+            try {
+                insert.setString(1, county.getCountyName());
+                insert.setString(2, county.getCountyCode());
+                insert.setInt(3, county.getCityId());
+                total += insert.executeUpdate();
+            } finally {
+                insert.close();
+            }
+        }
+        return total;
+    }
+
+    private static Connection open(File file) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(CoolWeatherOpenHelper.CREATE_COUNTY);
+            // 与Migrations第2版一致的索引
+            statement.execute("create index if not exists index_county_city_id on County (city_id)");
+            statement.execute("create unique index if not exists index_county_code on County (county_code)");
+        } finally {
+            statement.close();
+        }
+        return connection;
+    }
+
+    /**
+     * 与CoolWeatherDB.syncRegions对县表、单个上级的处理相同，返回改动的行数
+     */
+    private static int sync(Connection connection, List<County> counties, int cityId) throws SQLException {
+        connection.setAutoCommit(false);
+        PreparedStatement select = connection.prepareStatement(
+                "select id, county_name, county_code from County where city_id = ?");
+        PreparedStatement insert = connection.prepareStatement(
+                "insert or ignore into County (county_name, county_code, city_id) values (?, ?, ?)");
+        PreparedStatement rename = connection.prepareStatement("update County set county_name = ? where id = ?");
+        PreparedStatement adopt = connection.prepareStatement(
+                "update County set county_name = ?, city_id = ? where county_code = ?");
+        PreparedStatement lookup = connection.prepareStatement("select id from County where county_code = ?");
+        PreparedStatement delete = connection.prepareStatement("delete from County where id = ?");
+        int changes = 0;
+        try {
+            Map<String, Integer> existingIds = new HashMap<>();
+            Map<String, String> existingNames = new HashMap<>();
+            select.setInt(1, cityId);
+            ResultSet resultSet = select.executeQuery();
+            try {
+                while (resultSet.next()) {
+                    existingIds.put(resultSet.getString(3), resultSet.getInt(1));
+                    existingNames.put(resultSet.getString(3), resultSet.getString(2));
+                }
+            } finally {
+                resultSet.close();
+            }
+
+            Map<String, Integer> synced = new HashMap<>(counties.size() * 2);
+            for (County county : counties) {
+                String code = county.getCountyCode();
+                String name = county.getCountyName();
+                Integer id = synced.get(code);
+                if (id == null) {
+                    id = existingIds.remove(code);
+                    if (id != null) {
+                        if (!name.equals(existingNames.get(code))) {
+                            rename.setString(1, name);
+                            rename.setInt(2, id);
+                            rename.executeUpdate();
+                            changes++;
+                        }
+                    } else {
+                        insert.setString(1, name);
+                        insert.setString(2, code);
+                        insert.setInt(3, cityId);
+                        ResultSet key;
+                        if (insert.executeUpdate() == 0) {
+                            // 代号已属于其他上级，移过来后回查id
+                            adopt.setString(1, name);
+                            adopt.setInt(2, cityId);
+                            adopt.setString(3, code);
+                            adopt.executeUpdate();
+                            lookup.setString(1, code);
+                            key = lookup.executeQuery();
+                        } else {
+                            // 对应SQLiteStatement.executeInsert返回的rowid
+                            key = insert.getGeneratedKeys();
+                        }
+                        try {
+                            key.next();
+                            id = key.getInt(1);
+                        } finally {
+                            key.close();
+                        }
+                        changes++;
+                    }
+                    synced.put(code, id);
+                }
+                county.setId(id);
+            }
+
+            for (Integer id : existingIds.values()) {
+                delete.setInt(1, id);
+                delete.executeUpdate();
+                changes++;
+            }
+            connection.commit();
+        } finally {
+            select.close();
+            insert.close();
+            rename.close();
+            adopt.close();
+            lookup.close();
+            delete.close();
+            connection.setAutoCommit(true);
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,208 @@
+package com.alo.coolweather.benchmark;
+
+import com.alo.coolweather.db.CoolWeatherOpenHelper;
+import com.alo.coolweather.model.Weather;
+import com.alo.coolweather.util.Histogram;
+import com.alo.coolweather.util.HttpUtil;
+import com.alo.coolweather.util.Metrics;
+import com.alo.coolweather.util.Utility;
+import com.alo.coolweather.util.WeatherApi;
+import com.alo.coolweather.util.WeatherParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 天气刷新全流程的压测：多个线程不断通过HttpUtil向StubWeatherServer请求天气，流式解析后写入
+ * sqlite-jdbc上与应用相同结构的Weather表，统计每秒完成的请求数和从发起请求到提交事务的延迟分布。
+ * 写入按CoolWeatherDB.saveWeathersAsync的思路合并：同一时刻等待写入的结果在一个事务中提交。
+ * <p>
+ * 参数都是key=value形式，例如：threads=16 seconds=20 latency=50 jitter=30 errors=0.02 bytes=4096
+ * Created by alo on 2017/1/5.
+ */
+public class LoadTest {
+    private final Connection connection;
+    private final PreparedStatement insert;
+    /**
+     * 等待写入的结果，以及已入队和已提交的序号，用于合并提交
+     */
+    private final List<Weather> pending = new ArrayList<>();
+    private long enqueued;
+    private long committed;
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+
+    private LoadTest(File file) throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(CoolWeatherOpenHelper.CREATE_WEATHER);
+            // 与Android上SQLiteDatabase.enableWriteAheadLogging的效果一致
+            statement.execute("pragma journal_mode=WAL");
+        } finally {
+            statement.close();
+        }
+        insert = connection.prepareStatement("insert or replace into Weather (weather_code, city_name, temp1, "
+                + "temp2, weather_desp, publish_time, update_date, updated_at) values (?, ?, ?, ?, ?, ?, ?, ?)");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int threads = Integer.parseInt(option(options, "threads", "8"));
+        int seconds = Integer.parseInt(option(options, "seconds", "10"));
+        int warmupSeconds = Integer.parseInt(option(options, "warmup", "2"));
+        long latency = Long.parseLong(option(options, "latency", "20"));
+        long jitter = Long.parseLong(option(options, "jitter", "10"));
+        double errors = Double.parseDouble(option(options, "errors", "0"));
+        int bytes = Integer.parseInt(option(options, "bytes", "0"));
+        final int cities = Integer.parseInt(option(options, "cities", "500"));
+        int serverThreads = Integer.parseInt(option(options, "serverThreads", "64"));
+
+        StubWeatherServer server = new StubWeatherServer(serverThreads)
+                .setLatency(latency, jitter)
+                .setErrorRate(errors)
+                .setWeatherBytes(bytes);
+        WeatherApi.setBaseUrl(server.getBaseUrl());
+        File file = File.createTempFile("cool_weather_load", ".db");
+        final LoadTest loadTest = new LoadTest(file);
+        final Histogram histogram = new Histogram();
+        final AtomicLong succeeded = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+
+        System.out.println("load test: threads=" + threads + " seconds=" + seconds + " warmup=" + warmupSeconds
+                + " latency=" + latency + "+" + jitter + "ms errors=" + errors + " bytes=" + bytes
+                + " cities=" + cities + " server=" + server.getBaseUrl());
+        final long measureFrom = System.nanoTime() + warmupSeconds * 1000000000L;
+        final long measureUntil = measureFrom + seconds * 1000000000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread("load-" + t) {
+                @Override
+                public void run() {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long now;
+                    while ((now = System.nanoTime()) < measureUntil) {
+                        boolean ok = loadTest.refresh(StubWeatherServer.weatherCode(random.nextInt(cities)));
+                        if (now >= measureFrom) {
+                            histogram.recordSince(now);
+                            (ok ? succeeded : failed).incrementAndGet();
+                        }
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long serverRequests = server.getRequestCount();
+        server.stop();
+        loadTest.close();
+        file.delete();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        System.out.println(String.format("requests   %d (ok %d, failed %d), %.1f req/s", snapshot.count,
+                succeeded.get(), failed.get(), (double) succeeded.get() / seconds));
+        System.out.println(String.format("latency us mean=%d p50=%d p90=%d p99=%d p999=%d max=%d",
+                Math.round(snapshot.getMean()), snapshot.getValueAtQuantile(0.5), snapshot.getValueAtQuantile(0.9),
+                snapshot.getValueAtQuantile(0.99), snapshot.getValueAtQuantile(0.999), snapshot.max));
+        System.out.println("server     requests=" + serverRequests + " injected_errors=" + server.getErrorCount());
+        System.out.println("database   rows=" + loadTest.rows.get() + " commits=" + loadTest.commits.get());
+        System.out.println("metrics    " + Metrics.toJson());
+    }
+
+    /**
+     * 一次完整的刷新：请求、解析、写入并提交，返回是否成功
+     */
+    private boolean refresh(String weatherCode) {
+        try {
+            WeatherParser.Result result = Utility.parseWeatherInfo(HttpUtil.get(WeatherApi.weatherUrl(weatherCode)));
+            if (!result.isSuccess()) {
+                return false;
+            }
+            persist(Utility.toWeather(result.getWeatherInfo()));
+            return true;
+        } catch (IOException | SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 入队后等待包含它的事务提交。拿到连接的线程把当时所有排队的结果一起写入，其余线程只需等待。
+     */
+    private void persist(Weather weather) throws SQLException {
+        long sequence;
+        synchronized (pending) {
+            pending.add(weather);
+            sequence = ++enqueued;
+        }
+        synchronized (connection) {
+            if (committed >= sequence) {
+                return;
+            }
+            List<Weather> batch;
+            long upTo;
+            synchronized (pending) {
+                batch = new ArrayList<>(pending);
+                pending.clear();
+                upTo = enqueued;
+            }
+            connection.setAutoCommit(false);
+            try {
+                for (Weather item : batch) {
+                    insert.setString(1, item.getWeatherCode());
+                    insert.setString(2, item.getCityName());
+                    insert.setString(3, item.getTemp1());
+                    insert.setString(4, item.getTemp2());
+                    insert.setString(5, item.getWeatherDesp());
+                    insert.setString(6, item.getPublishTime());
+                    insert.setString(7, item.getUpdateDate());
+                    insert.setLong(8, item.getUpdatedAt());
+                    insert.executeUpdate();
+                }
+                connection.commit();
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            committed = upTo;
+            commits.incrementAndGet();
+            rows.addAndGet(batch.size());
+        }
+    }
+
+    private void close() throws SQLException {
+        insert.close();
+        connection.close();
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String key, String defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : value;
+    }
+}
@@ -0,0 +1,78 @@
+package com.alo.coolweather.benchmark;
+
+import com.alo.coolweather.model.County;
+import com.alo.coolweather.util.RegionTokenizer;
+import com.alo.coolweather.util.Utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 省市县“代号|名称,代号|名称”响应的解析：Utility中的解析方法、只做切分的RegionTokenizer，
+ * 以及最初按String.split实现的写法作为对照。rows覆盖省（34）、一个大省的市以及全国的县。
+ * Created by alo on 2016/12/30.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegionParseBenchmark {
+    @Param({"34", "400", "2600"})
+    public int rows;
+
+    private String response;
+
+    @Setup
+    public void setUp() {
+        response = Responses.regions(rows);
+    }
+
+    @Benchmark
+    public List<County> utilityParseCounties() {
+        return Utility.parseCounties(response, 1);
+    }
+
+    @Benchmark
+    public int tokenizeOnly() {
+        final int[] count = new int[1];
+        new RegionTokenizer().tokenize(response, new RegionTokenizer.Callback() {
+            @Override
+            public void onRegion(String code, String name) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * 最初的实现：先按逗号再按竖线split，每行都创建数组和正则匹配
+     */
+    @Benchmark
+    public List<County> legacySplit() {
+        List<County> counties = new ArrayList<>();
+        for (String row : response.split(",")) {
+            String[] array = row.split("\\|");
+            County county = new County();
+            county.setCountyCode(array[0]);
+            county.setCountyName(array[1]);
+            county.setCityId(1);
+            counties.add(county);
+        }
+        return counties;
+    }
+}
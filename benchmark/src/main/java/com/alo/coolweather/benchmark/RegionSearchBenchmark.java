@@ -0,0 +1,75 @@
+package com.alo.coolweather.benchmark;
+
+import com.alo.coolweather.util.RegionSearchIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全国规模（34省、400多市、2800多县）的前缀搜索：建立索引的耗时，以及轮流使用一组前缀取前10条的查询耗时。
+ * Created by alo on 2016/12/29.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegionSearchBenchmark {
+    private static final String[] SYLLABLES = {"安", "北", "长", "东", "福", "广", "海", "江", "昆", "兰", "南", "青",
+            "山", "太", "武", "西"};
+    private static final String[] PREFIXES = {"北", "海江", "南", "0", "01", "1203", "西安", "武", "3", "山东1"};
+
+    private List<RegionSearchIndex.Region> regions;
+    private RegionSearchIndex index;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        regions = country();
+        index = RegionSearchIndex.build(regions, null);
+    }
+
+    @Benchmark
+    public RegionSearchIndex build() {
+        return RegionSearchIndex.build(regions, null);
+    }
+
+    @Benchmark
+    public List<RegionSearchIndex.Region> searchTop10() {
+        String prefix = PREFIXES[next];
+        next = (next + 1) % PREFIXES.length;
+        return index.search(prefix, 10);
+    }
+
+    private static List<RegionSearchIndex.Region> country() {
+        List<RegionSearchIndex.Region> regions = new ArrayList<>();
+        int cityId = 1000;
+        int countyId = 100000;
+        for (int p = 1; p <= 34; p++) {
+            regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_PROVINCE, p, 0,
+                    SYLLABLES[p % 16] + "省" + p, String.format("%02d", p)));
+            for (int c = 0; c < 12; c++, cityId++) {
+                regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_CITY, cityId, p,
+                        SYLLABLES[c % 16] + SYLLABLES[p % 16] + c, String.format("%02d%02d", p, c)));
+                for (int k = 0; k < 7; k++, countyId++) {
+                    regions.add(new RegionSearchIndex.Region(RegionSearchIndex.LEVEL_COUNTY, countyId, cityId,
+                            SYLLABLES[(k + c) % 16] + SYLLABLES[k] + k + c, String.format("%02d%02d%02d", p, c, k)));
+                }
+            }
+        }
+        return regions;
+    }
+}
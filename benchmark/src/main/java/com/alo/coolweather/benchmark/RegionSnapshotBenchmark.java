@@ -0,0 +1,94 @@
+package com.alo.coolweather.benchmark;
+
+import com.alo.coolweather.util.RegionSnapshot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 遍历全国规模（3298个省市县）的映射快照：copyName把名称复制到复用的char数组，应当不产生对象；
+ * getName为每行创建String作为对照。配合 -prof gc 查看 gc.alloc.rate.norm。
+ * Created by alo on 2016/12/30.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegionSnapshotBenchmark {
+    private File file;
+    private RegionSnapshot snapshot;
+    private final char[] name = new char[64];
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("regions", ".snapshot");
+        RegionSnapshot.Writer writer = new RegionSnapshot.Writer();
+        int cityId = 1000;
+        int countyId = 100000;
+        for (int p = 1; p <= 34; p++) {
+            writer.addProvince(p, "省份" + p, String.format("%02d", p));
+            for (int c = 0; c < 12; c++, cityId++) {
+                writer.addCity(cityId, p, "城市" + c, "c" + cityId);
+                for (int k = 0; k < 7; k++, countyId++) {
+                    writer.addCounty(countyId, cityId, "区县" + k, "k" + countyId);
+                }
+            }
+        }
+        writer.writeTo(file);
+        snapshot = RegionSnapshot.open(file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public int traverseCopyName() {
+        int chars = 0;
+        for (int p = 0; p < snapshot.getCount(RegionSnapshot.LEVEL_PROVINCE); p++) {
+            chars += snapshot.copyName(RegionSnapshot.LEVEL_PROVINCE, p, name, 0);
+            for (int c = 0; c < snapshot.getChildCount(RegionSnapshot.LEVEL_PROVINCE, p); c++) {
+                int city = snapshot.getChild(RegionSnapshot.LEVEL_PROVINCE, p, c);
+                chars += snapshot.copyName(RegionSnapshot.LEVEL_CITY, city, name, 0);
+                for (int k = 0; k < snapshot.getChildCount(RegionSnapshot.LEVEL_CITY, city); k++) {
+                    int county = snapshot.getChild(RegionSnapshot.LEVEL_CITY, city, k);
+                    chars += snapshot.copyName(RegionSnapshot.LEVEL_COUNTY, county, name, 0);
+                }
+            }
+        }
+        return chars;
+    }
+
+    @Benchmark
+    public int traverseGetName() {
+        int chars = 0;
+        for (int p = 0; p < snapshot.getCount(RegionSnapshot.LEVEL_PROVINCE); p++) {
+            chars += snapshot.getName(RegionSnapshot.LEVEL_PROVINCE, p).length();
+            for (int c = 0; c < snapshot.getChildCount(RegionSnapshot.LEVEL_PROVINCE, p); c++) {
+                int city = snapshot.getChild(RegionSnapshot.LEVEL_PROVINCE, p, c);
+                chars += snapshot.getName(RegionSnapshot.LEVEL_CITY, city).length();
+                for (int k = 0; k < snapshot.getChildCount(RegionSnapshot.LEVEL_CITY, city); k++) {
+                    int county = snapshot.getChild(RegionSnapshot.LEVEL_CITY, city, k);
+                    chars += snapshot.getName(RegionSnapshot.LEVEL_COUNTY, county).length();
+                }
+            }
+        }
+        return chars;
+    }
+}
@@ -0,0 +1,65 @@
+package com.alo.coolweather.benchmark;
+
+/**
+ * 构造与服务器格式一致的测试响应
+ * Created by alo on 2016/12/30.
+ */
+final class Responses {
+    private static final String[] NAMES = {"朝阳", "海淀", "昆山", "乌鲁木齐", "西双版纳", "东城", "南山", "和平"};
+
+    private Responses() {
+    }
+
+    /**
+     * rows行“代号|名称”，以逗号分隔
+     */
+    static String regions(int rows) {
+        StringBuilder builder = new StringBuilder(rows * 16);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(String.format("%06d", 10101 + i)).append('|').append(NAMES[i % NAMES.length]).append(i);
+        }
+        return builder.toString();
+    }
+
+    static String weather(String cityId) {
+        return weather(cityId, 0);
+    }
+
+    /**
+     * 天气响应，按UTF-8不足minBytes字节时在weatherinfo开头加入无关的pad字段
+     */
+    static String weather(String cityId, int minBytes) {
+        String head = "{\"weatherinfo\":{";
+        String tail = "\"city\":\"昆山\",\"cityid\":\"" + cityId + "\",\"temp1\":\"21℃\","
+                + "\"temp2\":\"9℃\",\"weather\":\"多云转小雨\",\"img1\":\"d1.gif\",\"img2\":\"n7.gif\","
+                + "\"ptime\":\"11:00\"}}";
+        // “昆山”“多云转小雨”和两个“℃”在UTF-8下每个字多占2字节
+        int padding = minBytes - (head.length() + tail.length() + 2 * 9) - "\"pad\":\"\",".length();
+        if (padding <= 0) {
+            return head + tail;
+        }
+        StringBuilder builder = new StringBuilder(minBytes);
+        builder.append(head).append("\"pad\":\"");
+        for (int i = 0; i < padding; i++) {
+            builder.append('x');
+        }
+        return builder.append("\",").append(tail).toString();
+    }
+
+    /**
+     * count行“前缀加两位序号|名称”，与list3接口的格式一致
+     */
+    static String codes(String prefix, int count, String name) {
+        StringBuilder builder = new StringBuilder(count * 16);
+        for (int i = 1; i <= count; i++) {
+            if (i > 1) {
+                builder.append(',');
+            }
+            builder.append(prefix).append(String.format("%02d", i)).append('|').append(name).append(prefix).append(i);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,176 @@
+package com.alo.coolweather.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内模拟weather.com.cn的HTTP服务器，只监听本机回环地址，离线可用：
+ * <ul>
+ * <li>/data/list3/city.xml 返回省份，city{省}.xml 返回市，city{市}.xml 返回县，
+ * city{县}.xml 返回“县级代号|天气代号”</li>
+ * <li>/data/cityinfo/{天气代号}.html 返回天气JSON，可以用无关字段填充到指定大小</li>
+ * </ul>
+ * 响应延迟、错误比例和天气响应大小都可以配置，用来测量客户端在慢速和不稳定服务器下的吞吐和尾延迟。
+ * Created by alo on 2017/1/5.
+ */
+public class StubWeatherServer {
+    public static final int PROVINCES = 34;
+    public static final int CITIES_PER_PROVINCE = 12;
+    public static final int COUNTIES_PER_CITY = 8;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile double errorRate;
+    private volatile int weatherBytes;
+
+    /**
+     * @param threads 同时处理的请求数，模拟延迟时每个请求占用一个线程
+     */
+    public StubWeatherServer(int threads) throws IOException {
+        // 响应头和响应体分两次写出，不关闭Nagle算法时会与客户端的延迟确认叠加出约40ms的额外延迟
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 256);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/data/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * 每个响应的延迟为latencyMillis加上0到jitterMillis之间的随机值
+     */
+    public StubWeatherServer setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        return this;
+    }
+
+    /**
+     * 以该比例（0~1）随机返回503
+     */
+    public StubWeatherServer setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * 天气响应的最小字节数，不足时在weatherinfo中加入无关字段填充，0表示不填充
+     */
+    public StubWeatherServer setWeatherBytes(int weatherBytes) {
+        this.weatherBytes = weatherBytes;
+        return this;
+    }
+
+    /**
+     * 基础地址，可直接传给WeatherApi.setBaseUrl
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/data/";
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * 第index个县的天气代号，index从0到 PROVINCES * CITIES_PER_PROVINCE * COUNTIES_PER_CITY - 1
+     */
+    public static String weatherCode(int index) {
+        int county = index % COUNTIES_PER_CITY + 1;
+        int city = index / COUNTIES_PER_CITY % CITIES_PER_PROVINCE + 1;
+        int province = index / (COUNTIES_PER_CITY * CITIES_PER_PROVINCE) % PROVINCES + 1;
+        return String.format("101%02d%02d%02d", province, city, county);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            if (errorRate > 0 && random.nextDouble() < errorRate) {
+                errorCount.incrementAndGet();
+                send(exchange, 503, "");
+                return;
+            }
+            String body = bodyFor(exchange.getRequestURI().getPath());
+            if (body == null) {
+                send(exchange, 404, "");
+            } else {
+                send(exchange, 200, body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String bodyFor(String path) {
+        if (path.startsWith("/data/list3/city") && path.endsWith(".xml")) {
+            String code = path.substring("/data/list3/city".length(), path.length() - ".xml".length());
+            if (!code.matches("\\d*")) {
+                return null;
+            }
+            switch (code.length()) {
+                case 0:
+                    return Responses.codes("", PROVINCES, "省份");
+                case 2:
+                    return Responses.codes(code, CITIES_PER_PROVINCE, "城市");
+                case 4:
+                    return Responses.codes(code, COUNTIES_PER_CITY, "区县");
+                case 6:
+                    return code + "|101" + code;
+                default:
+                    return null;
+            }
+        }
+        if (path.startsWith("/data/cityinfo/") && path.endsWith(".html")) {
+            String weatherCode = path.substring("/data/cityinfo/".length(), path.length() - ".html".length());
+            return Responses.weather(weatherCode, weatherBytes);
+        }
+        return null;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.alo.coolweather.benchmark;
+
+import com.alo.coolweather.model.Weather;
+import com.alo.coolweather.model.WeatherInfo;
+import com.alo.coolweather.util.Utility;
+import com.alo.coolweather.util.WeatherParser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * handleWeatherResponse中的JSON解析：streamWeatherInfo是现在的流式解析，treeWeatherInfo是原来
+ * 先建JSONObject树再取字段的做法，作为对照；parseWeather包含转换成Weather的开销。
+ * cities模拟一次自动更新中刷新的城市数。
+ * Created by alo on 2016/12/30.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeatherParseBenchmark {
+    @Param({"1", "10"})
+    public int cities;
+
+    private String[] responses;
+
+    @Setup
+    public void setUp() {
+        responses = new String[cities];
+        for (int i = 0; i < cities; i++) {
+            responses[i] = Responses.weather(String.valueOf(101190404 + i));
+        }
+    }
+
+    @Benchmark
+    public List<WeatherInfo> streamWeatherInfo() {
+        List<WeatherInfo> infos = new ArrayList<>(cities);
+        for (String response : responses) {
+            infos.add(WeatherParser.parse(response).getWeatherInfo());
+        }
+        return infos;
+    }
+
+    @Benchmark
+    public List<WeatherInfo> treeWeatherInfo() throws JSONException {
+        List<WeatherInfo> infos = new ArrayList<>(cities);
+        for (String response : responses) {
+            JSONObject jsonObject = new JSONObject(response).getJSONObject("weatherinfo");
+            infos.add(new WeatherInfo(jsonObject.getString("cityid"), jsonObject.getString("city"),
+                    jsonObject.getString("temp1"), jsonObject.getString("temp2"),
+                    jsonObject.getString("weather"), jsonObject.getString("ptime")));
+        }
+        return infos;
+    }
+
+    @Benchmark
+    public List<Weather> parseWeather() {
+        List<Weather> weathers = new ArrayList<>(cities);
+        for (String response : responses) {
+            weathers.add(Utility.parseWeather(response));
+        }
+        return weathers;
+    }
+
+    @Benchmark
+    public List<Weather> constructWeather() {
+        List<Weather> weathers = new ArrayList<>(cities);
+        for (int i = 0; i < cities; i++) {
+            Weather weather = new Weather();
+            weather.setCityName("昆山");
+            weather.setWeatherCode("101190404");
+            weather.setTemp1("21℃");
+            weather.setTemp2("9℃");
+            weather.setWeatherDesp("多云转小雨");
+            weather.setPublishTime("11:00");
+            weather.setUpdatedAt(i);
+            weathers.add(weather);
+        }
+        return weathers;
+    }
+}